@@ -45,10 +45,34 @@ public class Configuration {
     public boolean DEBUG_FINDS;
 
     /**
-     * Database implementation name: "sqlite", "yaml" or "sqlite+yaml"
+     * Database implementation name: "sqlite", "binary", "sharded-yaml" or
+     * "yaml", or "<primary>+<secondary>" to mirror writes, e.g. "sqlite+yaml".
      */
     public String DATABASE_IMPLEMENTATION;
 
+    /**
+     * Period in seconds between background writes of changed horses to the
+     * database, or 0 to only write the database when the plugin is disabled.
+     */
+    public int DATABASE_FLUSH_PERIOD_SECONDS;
+
+    /**
+     * Maximum number of horses written to the database by each background
+     * write.
+     */
+    public int DATABASE_FLUSH_MAX_HORSES;
+
+    /**
+     * Period in ticks between appends of changes to the horse journal.
+     */
+    public int DATABASE_JOURNAL_PERIOD_TICKS;
+
+    /**
+     * Number of days after which a horse that has not been observed is moved
+     * from memory to the cold store, or 0 to keep all horses in memory.
+     */
+    public int DATABASE_COLD_AFTER_DAYS;
+
     /**
      * If true, eject the rider from the horse when he logs off.
      */
@@ -304,6 +328,10 @@ public class Configuration {
         DEBUG_FINDS = config.getBoolean("debug.finds");
 
         DATABASE_IMPLEMENTATION = config.getString("database.implementation");
+        DATABASE_FLUSH_PERIOD_SECONDS = config.getInt("database.flush-period-seconds");
+        DATABASE_FLUSH_MAX_HORSES = config.getInt("database.flush-max-horses");
+        DATABASE_JOURNAL_PERIOD_TICKS = Math.max(1, config.getInt("database.journal-period-ticks"));
+        DATABASE_COLD_AFTER_DAYS = Math.max(0, config.getInt("database.cold-after-days"));
         EJECT_ON_LOGOFF = config.getBoolean("eject-on-logoff");
         ALLOW_PVP = config.getBoolean("allow-pvp");
         LOOK_ANGLE_WORKAROUND = config.getBoolean("look-angle-workaround");
@@ -332,6 +360,10 @@ public class Configuration {
             logger.info("DEBUG_SCANS: " + DEBUG_SCANS);
             logger.info("DEBUG_FINDS: " + DEBUG_FINDS);
             logger.info("DATABASE_IMPLEMENTATION: " + DATABASE_IMPLEMENTATION);
+            logger.info("DATABASE_FLUSH_PERIOD_SECONDS: " + DATABASE_FLUSH_PERIOD_SECONDS);
+            logger.info("DATABASE_FLUSH_MAX_HORSES: " + DATABASE_FLUSH_MAX_HORSES);
+            logger.info("DATABASE_JOURNAL_PERIOD_TICKS: " + DATABASE_JOURNAL_PERIOD_TICKS);
+            logger.info("DATABASE_COLD_AFTER_DAYS: " + DATABASE_COLD_AFTER_DAYS);
             logger.info("EJECT_ON_LOGOFF: " + EJECT_ON_LOGOFF);
             logger.info("ALLOW_PVP: " + ALLOW_PVP);
             logger.info("LOOK_ANGLE_WORKAROUND: " + LOOK_ANGLE_WORKAROUND);
@@ -1,12 +1,14 @@
 package nu.nerd.easyrider;
 
 import java.io.File;
-import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.OfflinePlayer;
@@ -21,7 +23,6 @@ import org.bukkit.block.data.BlockData;
 import org.bukkit.block.data.Levelled;
 import org.bukkit.block.data.Waterlogged;
 import org.bukkit.command.PluginCommand;
-import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.AbstractHorse;
 import org.bukkit.entity.AnimalTamer;
 import org.bukkit.entity.Entity;
@@ -53,7 +54,9 @@ import org.bukkit.event.world.ChunkUnloadEvent;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
 
 import nu.nerd.easyrider.commands.EasyRiderExecutor;
 import nu.nerd.easyrider.commands.ExecutorBase;
@@ -127,6 +130,30 @@ public class EasyRider extends JavaPlugin implements Listener {
      */
     public static HorseDB DB;
 
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor used by the server.
+     */
+    public EasyRider() {
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor used by offline tools, such as
+     * {@link nu.nerd.easyrider.db.HorseDBTool}, to provide the logger, data
+     * folder and configuration of the plugin without a running server.
+     *
+     * The plugin is not enabled.
+     *
+     * @param loader the plugin loader.
+     * @param description the plugin description.
+     * @param dataFolder the plugin's data folder.
+     * @param file the plugin's JAR file.
+     */
+    public EasyRider(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+        super(loader, description, dataFolder, file);
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Return the provider of the disguise facility, or null if not supported.
@@ -149,11 +176,10 @@ public class EasyRider extends JavaPlugin implements Listener {
         CONFIG.reload();
 
         DB = new HorseDB(CONFIG.DATABASE_IMPLEMENTATION);
-        DB.backup();
         DB.load();
+        DB.backup();
 
-        File playersFile = new File(getDataFolder(), PLAYERS_FILE);
-        _playerConfig = YamlConfiguration.loadConfiguration(playersFile);
+        _playerStore = new PlayerStore(getDataFolder().toPath());
 
         addCommandExecutor(new EasyRiderExecutor());
         addCommandExecutor(new HorseDebugExecutor());
@@ -211,6 +237,31 @@ public class EasyRider extends JavaPlugin implements Listener {
 
         }, 20 * CONFIG.SCAN_PERIOD_SECONDS);
 
+        // Periodically move long unobserved horses to the cold store and write
+        // changed horses to the database in the background. When disabled,
+        // check again in a minute in case of reconfiguration.
+        Bukkit.getScheduler().scheduleSyncDelayedTask(this, new Runnable() {
+            @Override
+            public void run() {
+                if (CONFIG.DATABASE_COLD_AFTER_DAYS > 0) {
+                    DB.evictColdHorses(CONFIG.DATABASE_COLD_AFTER_DAYS * 24L * 60 * 60 * 1000);
+                }
+                if (CONFIG.DATABASE_FLUSH_PERIOD_SECONDS > 0) {
+                    DB.flush(CONFIG.DATABASE_FLUSH_MAX_HORSES);
+                }
+                Bukkit.getScheduler().scheduleSyncDelayedTask(EasyRider.PLUGIN, this, 20 * getFlushPeriodSeconds());
+            }
+        }, 20 * getFlushPeriodSeconds());
+
+        // Frequently append changes to the journal, for crash recovery.
+        Bukkit.getScheduler().scheduleSyncDelayedTask(this, new Runnable() {
+            @Override
+            public void run() {
+                DB.commitJournal();
+                Bukkit.getScheduler().scheduleSyncDelayedTask(EasyRider.PLUGIN, this, CONFIG.DATABASE_JOURNAL_PERIOD_TICKS);
+            }
+        }, CONFIG.DATABASE_JOURNAL_PERIOD_TICKS);
+
         Plugin libsDisguises = Bukkit.getPluginManager().getPlugin("LibsDisguises");
         if (libsDisguises != null && libsDisguises.isEnabled()) {
             _disguiseProvider = new LibsDisguiseProvider();
@@ -227,22 +278,19 @@ public class EasyRider extends JavaPlugin implements Listener {
     public void onDisable() {
         Bukkit.getScheduler().cancelTasks(this);
         for (PlayerState state : _state.values()) {
-            state.save(_playerConfig);
-        }
-
-        try {
-            _playerConfig.save(new File(getDataFolder(), PLAYERS_FILE));
-        } catch (IOException ex) {
-            getLogger().warning("Unable to save player data: " + ex.getMessage());
+            _playerStore.save(state);
         }
+        _playerStore.close();
 
         DB.save();
         DB.purgeAllRemovedHorses();
+        DB.close();
     }
 
     // ------------------------------------------------------------------------
     /**
-     * On join, allocate each player a {@link PlayerState} instance.
+     * On join, allocate each player a {@link PlayerState} instance and load
+     * their preferences in the background.
      */
     @EventHandler(ignoreCancelled = true)
     public void onPlayerJoin(PlayerJoinEvent event) {
@@ -252,7 +300,8 @@ public class EasyRider extends JavaPlugin implements Listener {
 
     // ------------------------------------------------------------------------
     /**
-     * On quit, forget the {@link PlayerState}.
+     * On quit, forget the {@link PlayerState}, saving the player's preferences
+     * in the background if they have changed.
      *
      * If configured, automatically eject the player from its horse.
      */
@@ -264,7 +313,7 @@ public class EasyRider extends JavaPlugin implements Listener {
         }
 
         PlayerState state = _state.remove(player.getName());
-        state.save(_playerConfig);
+        _playerStore.save(state);
     }
 
     // ------------------------------------------------------------------------
@@ -840,18 +889,47 @@ public class EasyRider extends JavaPlugin implements Listener {
     // ------------------------------------------------------------------------
     /**
      * On chunk unload, update database state of horses.
+     *
+     * Horses that were last seen in the chunk according to the database, but
+     * are no longer in it, have moved without being observed. If such a horse
+     * is loaded elsewhere, its database state is updated from the entity, so
+     * that its location is current. Otherwise, it is logged when debugging
+     * finds.
      */
     @EventHandler(ignoreCancelled = true)
     public void onChunkUnload(ChunkUnloadEvent event) {
+        HashSet<UUID> observed = new HashSet<UUID>();
         for (Entity entity : event.getChunk().getEntities()) {
             if (Util.isTrackable(entity)) {
                 AbstractHorse abstractHorse = (AbstractHorse) entity;
                 SavedHorse savedHorse = DB.findHorse(abstractHorse);
                 if (savedHorse != null) {
                     DB.observe(savedHorse, abstractHorse);
+                    observed.add(savedHorse.getUuid());
                 }
             }
         }
+
+        Chunk chunk = event.getChunk();
+        for (SavedHorse savedHorse : DB.findHorsesInChunks(chunk.getWorld().getName(), chunk.getX(), chunk.getZ(), 0)) {
+            if (observed.contains(savedHorse.getUuid())) {
+                continue;
+            }
+
+            Entity entity = Bukkit.getEntity(savedHorse.getUuid());
+            if (Util.isTrackable(entity)) {
+                DB.observe(savedHorse, (AbstractHorse) entity);
+                if (CONFIG.DEBUG_FINDS) {
+                    getLogger().info("Horse " + savedHorse.getUuid() + " was last seen in unloaded chunk " +
+                                     chunk.getWorld().getName() + " (" + chunk.getX() + ", " + chunk.getZ() +
+                                     ") but was found at " + Util.formatLocation(entity.getLocation()) + ".");
+                }
+            } else if (CONFIG.DEBUG_FINDS) {
+                getLogger().info("Horse " + savedHorse.getUuid() + " was last seen in unloaded chunk " +
+                                 chunk.getWorld().getName() + " (" + chunk.getX() + ", " + chunk.getZ() +
+                                 ") but is no longer there.");
+            }
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -934,7 +1012,9 @@ public class EasyRider extends JavaPlugin implements Listener {
      */
     protected void addState(Player player) {
         if (!_state.containsKey(player.getName())) {
-            _state.put(player.getName(), new PlayerState(player, _playerConfig));
+            PlayerState state = new PlayerState(player);
+            _state.put(player.getName(), state);
+            _playerStore.load(state);
         }
     }
 
@@ -1207,6 +1287,18 @@ public class EasyRider extends JavaPlugin implements Listener {
                block.getType() == Material.WATER;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return the period in seconds between runs of the background database
+     * write task.
+     *
+     * @return the period in seconds between runs of the background database
+     *         write task; 60 seconds if background writes are disabled.
+     */
+    protected int getFlushPeriodSeconds() {
+        return (CONFIG.DATABASE_FLUSH_PERIOD_SECONDS > 0) ? CONFIG.DATABASE_FLUSH_PERIOD_SECONDS : 60;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Add the specified CommandExecutor and set it as its own TabCompleter.
@@ -1220,11 +1312,6 @@ public class EasyRider extends JavaPlugin implements Listener {
     }
 
     // ------------------------------------------------------------------------
-    /**
-     * Name of players file.
-     */
-    protected static final String PLAYERS_FILE = "players.yml";
-
     /**
      * Start of lore string on saddles indicating that the saddle confers a
      * disguise.
@@ -1232,9 +1319,9 @@ public class EasyRider extends JavaPlugin implements Listener {
     protected static final String DISGUISE_PREFIX = "Disguise:";
 
     /**
-     * Configuration file for per-player settings.
+     * Storage of per-player settings.
      */
-    protected YamlConfiguration _playerConfig;
+    protected PlayerStore _playerStore;
 
     /**
      * Map from Player name to {@link PlayerState} instance.
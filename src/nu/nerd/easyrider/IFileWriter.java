@@ -0,0 +1,22 @@
+package nu.nerd.easyrider;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// ----------------------------------------------------------------------------
+/**
+ * Writes the complete contents of a file.
+ *
+ * Used with {@link Util#writeAtomically(Path, IFileWriter)} to write to a
+ * temporary file that then replaces the destination.
+ */
+public interface IFileWriter {
+    /**
+     * Write the complete contents of the specified file, replacing any
+     * existing contents.
+     *
+     * @param file the path to the file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(Path file) throws IOException;
+} // interface IFileWriter
@@ -1,8 +1,9 @@
 package nu.nerd.easyrider;
 
+import java.util.UUID;
+
 import org.bukkit.Location;
 import org.bukkit.configuration.ConfigurationSection;
-import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.AbstractHorse;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
@@ -14,17 +15,40 @@ import nu.nerd.easyrider.db.SavedHorse;
 /**
  * Transient, per-player state, created on join and removed when the player
  * leaves.
+ *
+ * The player's preferences are loaded and saved by the {@link PlayerStore}.
  */
 public class PlayerState {
     /**
      * Constructor.
      *
+     * The player's preferences have their default values until loaded.
+     *
      * @param player the player.
-     * @param config the configuration from which player preferences are loaded.
      */
-    public PlayerState(Player player, YamlConfiguration config) {
+    public PlayerState(Player player) {
         _player = player;
-        load(config);
+        _maxSpeed = 4 * EasyRider.CONFIG.SPEED.getMaxValue();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the player.
+     *
+     * @return the player.
+     */
+    public Player getPlayer() {
+        return _player;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the player's UUID.
+     *
+     * @return the player's UUID.
+     */
+    public UUID getPlayerUuid() {
+        return _player.getUniqueId();
     }
 
     // ------------------------------------------------------------------------
@@ -79,6 +103,7 @@ public class PlayerState {
      */
     public void setMaxSpeed(double maxSpeed) {
         _maxSpeed = Math.min(4 * EasyRider.CONFIG.SPEED.getMaxValue(), Math.max(0, maxSpeed));
+        _dirty = true;
     }
 
     // --------------------------------------------------------------------------
@@ -101,6 +126,7 @@ public class PlayerState {
      */
     public void setNeglectful(boolean neglectful) {
         _neglectful = neglectful;
+        _dirty = true;
     }
 
     // --------------------------------------------------------------------------
@@ -187,12 +213,30 @@ public class PlayerState {
 
     // ------------------------------------------------------------------------
     /**
-     * Save this player's preferences to the specified configuration.
+     * Return true if this player's preferences have changed since they were
+     * loaded or saved.
+     *
+     * @return true if this player's preferences have unsaved changes.
+     */
+    public boolean isDirty() {
+        return _dirty;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Signify that this player's preferences do not have any unsaved changes.
+     */
+    public void setClean() {
+        _dirty = false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Save this player's preferences to the specified configuration section.
      *
-     * @param config the configuration to update.
+     * @param section the section to update.
      */
-    public void save(YamlConfiguration config) {
-        ConfigurationSection section = config.getConfigurationSection(_player.getUniqueId().toString());
+    public void save(ConfigurationSection section) {
         section.set("name", _player.getName());
         section.set("max-speed", getMaxSpeed());
         section.set("neglectful", isNeglectful());
@@ -200,18 +244,14 @@ public class PlayerState {
 
     // ------------------------------------------------------------------------
     /**
-     * Load the Player's preferences from the specified configuration
+     * Load the Player's preferences from the specified configuration section.
      *
-     * @param config the configuration from which player preferences are loaded.
+     * @param section the section from which player preferences are loaded.
      */
-    protected void load(YamlConfiguration config) {
-        ConfigurationSection section = config.getConfigurationSection(_player.getUniqueId().toString());
-        if (section == null) {
-            section = config.createSection(_player.getUniqueId().toString());
-        }
-
+    public void load(ConfigurationSection section) {
         setMaxSpeed(section.getDouble("max-speed", 4 * EasyRider.CONFIG.SPEED.getMaxValue()));
         setNeglectful(section.getBoolean("neglectful"));
+        setClean();
     }
 
     // ------------------------------------------------------------------------
@@ -255,4 +295,9 @@ public class PlayerState {
      * If true, the player ignores horse dehydration.
      */
     protected boolean _neglectful;
+
+    /**
+     * True if the player's preferences have unsaved changes.
+     */
+    protected boolean _dirty;
 } // class PlayerState
\ No newline at end of file
@@ -0,0 +1,188 @@
+package nu.nerd.easyrider;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+// ----------------------------------------------------------------------------
+/**
+ * Storage of per-player preferences, with one YAML file per player in the
+ * "players/" subdirectory of the plugin folder.
+ *
+ * Files are read and written in a dedicated thread, so that neither joins nor
+ * quits wait on disk I/O. Only the preferences of online players are held in
+ * memory, in their {@link PlayerState}.
+ */
+public class PlayerStore {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * If the legacy players file exists, it is split into per-player files in
+     * the background before any preferences are loaded.
+     *
+     * @param dataDir the plugin's data folder.
+     */
+    public PlayerStore(Path dataDir) {
+        _playersDir = dataDir.resolve(PLAYERS_DIR);
+        Path legacyFile = dataDir.resolve(LEGACY_PLAYERS_FILE);
+        if (Files.exists(legacyFile)) {
+            _executor.execute(() -> migrate(legacyFile));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the preferences of the specified player in the background, and
+     * apply them to the player's state in the main thread.
+     *
+     * If the player has left, or has already changed their preferences, by
+     * the time the file is read, the loaded preferences are discarded.
+     *
+     * @param state the player's state.
+     */
+    public void load(PlayerState state) {
+        Path file = getPlayerFile(state.getPlayerUuid());
+        _executor.execute(() -> {
+            if (!Files.exists(file)) {
+                return;
+            }
+
+            YamlConfiguration config = YamlConfiguration.loadConfiguration(file.toFile());
+            if (!EasyRider.PLUGIN.isEnabled()) {
+                return;
+            }
+            Bukkit.getScheduler().scheduleSyncDelayedTask(EasyRider.PLUGIN, () -> {
+                if (EasyRider.PLUGIN.getState(state.getPlayer()) == state && !state.isDirty()) {
+                    state.load(config);
+                }
+            });
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Save the preferences of the specified player in the background, if they
+     * have changed since they were loaded.
+     *
+     * This method must be called in the main thread.
+     *
+     * @param state the player's state.
+     */
+    public void save(PlayerState state) {
+        if (!state.isDirty()) {
+            return;
+        }
+
+        YamlConfiguration config = new YamlConfiguration();
+        state.save(config);
+        state.setClean();
+        String text = config.saveToString();
+        Path file = getPlayerFile(state.getPlayerUuid());
+        _executor.execute(() -> {
+            try {
+                Files.createDirectories(_playersDir);
+                Util.writeAtomically(file, f -> Files.write(f, text.getBytes(StandardCharsets.UTF_8)));
+            } catch (IOException ex) {
+                EasyRider.PLUGIN.getLogger().warning("Unable to save player data to " + file + ": " + ex.getMessage());
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Wait for all pending saves to complete and stop the I/O thread.
+     */
+    public void close() {
+        _executor.shutdown();
+        try {
+            if (!_executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                EasyRider.PLUGIN.getLogger().severe("Timed out waiting for player data to be saved.");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the path to the file containing the preferences of the player
+     * with the specified UUID.
+     *
+     * @param playerUuid the player's UUID.
+     * @return the path to the player's file.
+     */
+    protected Path getPlayerFile(UUID playerUuid) {
+        return _playersDir.resolve(playerUuid.toString() + ".yml");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Split the legacy players file, which has one section per player, into
+     * per-player files, then rename it so that it is only migrated once.
+     *
+     * Existing per-player files are not overwritten.
+     *
+     * @param legacyFile the path to the legacy players file.
+     */
+    protected void migrate(Path legacyFile) {
+        YamlConfiguration legacyConfig = YamlConfiguration.loadConfiguration(legacyFile.toFile());
+        int count = 0;
+        try {
+            Files.createDirectories(_playersDir);
+            for (String key : legacyConfig.getKeys(false)) {
+                ConfigurationSection section = legacyConfig.getConfigurationSection(key);
+                if (section == null) {
+                    continue;
+                }
+
+                Path file = _playersDir.resolve(key + ".yml");
+                if (!Files.exists(file)) {
+                    YamlConfiguration config = new YamlConfiguration();
+                    for (String name : section.getKeys(false)) {
+                        config.set(name, section.get(name));
+                    }
+                    String text = config.saveToString();
+                    Util.writeAtomically(file, f -> Files.write(f, text.getBytes(StandardCharsets.UTF_8)));
+                    ++count;
+                }
+            }
+            Files.move(legacyFile, legacyFile.resolveSibling(LEGACY_PLAYERS_FILE + ".migrated"));
+            EasyRider.PLUGIN.getLogger().info("Migrated " + count + " players from " + LEGACY_PLAYERS_FILE +
+                                              " to " + PLAYERS_DIR + "/.");
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to migrate " + LEGACY_PLAYERS_FILE + ": " + ex.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Name of the directory containing per-player files.
+     */
+    protected static final String PLAYERS_DIR = "players";
+
+    /**
+     * Name of the legacy file containing the preferences of all players.
+     */
+    protected static final String LEGACY_PLAYERS_FILE = "players.yml";
+
+    /**
+     * The directory containing per-player files.
+     */
+    protected Path _playersDir;
+
+    /**
+     * Single thread that reads and writes player files in order.
+     */
+    protected ExecutorService _executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "EasyRider Players"));
+
+} // class PlayerStore
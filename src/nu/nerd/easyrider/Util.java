@@ -1,5 +1,11 @@
 package nu.nerd.easyrider;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.UUID;
 
@@ -339,6 +345,41 @@ public class Util {
         return blockData instanceof Waterlogged && ((Waterlogged) blockData).isWaterlogged();
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Write a file such that a crash part way through leaves either the old or
+     * the new contents, never a truncated file.
+     *
+     * The contents are written to a temporary file in the same directory,
+     * which is synced to the disk and then atomically renamed over the
+     * destination.
+     *
+     * @param file the path to the destination file.
+     * @param writer writes the contents to the temporary file.
+     * @throws IOException if the file cannot be written; the destination is
+     *         then unchanged.
+     */
+    public static void writeAtomically(Path file, IFileWriter writer) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            writer.write(tempFile);
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            Files.deleteIfExists(tempFile);
+            throw ex;
+        }
+
+        // Make the rename durable. Not all platforms can sync a directory.
+        try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException ex) {
+            // Ignored: the rename has still happened.
+        }
+    }
+
     // ------------------------------------------------------------------------
     /**
      * The string form of Horse.Color constants as returned by getAppearance(),
@@ -1,10 +1,14 @@
 package nu.nerd.easyrider.commands;
 
+import java.util.List;
+
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 
 import nu.nerd.easyrider.EasyRider;
+import nu.nerd.easyrider.db.DBMetrics;
+import nu.nerd.easyrider.db.HorseDB;
 
 // ----------------------------------------------------------------------------
 /**
@@ -16,7 +20,7 @@ public class EasyRiderExecutor extends ExecutorBase {
      * Default constructor.
      */
     public EasyRiderExecutor() {
-        super("easyrider", "reload", "migrate", "help");
+        super("easyrider", "reload", "migrate", "stats", "help");
     }
 
     // ------------------------------------------------------------------------
@@ -35,6 +39,17 @@ public class EasyRiderExecutor extends ExecutorBase {
         } else if (args.length == 2 && args[0].equalsIgnoreCase("migrate")) {
             EasyRider.DB.migrate(sender, args[1]);
             return true;
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("stats") && args[1].equalsIgnoreCase("db")) {
+            List<String> lines = HorseDB.METRICS.describe();
+            if (lines.isEmpty()) {
+                sender.sendMessage(ChatColor.GOLD + "No database metrics have been recorded yet.");
+            } else {
+                sender.sendMessage(ChatColor.GOLD + "Database metrics over the last " + DBMetrics.SAMPLES + " samples:");
+                for (String line : lines) {
+                    sender.sendMessage(ChatColor.YELLOW + line);
+                }
+            }
+            return true;
         } else {
             sender.sendMessage(ChatColor.RED + "Invalid command. Type \"/" + getName().toLowerCase() + " help\" for help.");
             return true;
@@ -65,7 +65,13 @@ public class HorseAccessExecutor extends ExecutorBase {
             } else if (found.size() > 1) {
                 sender.sendMessage(ChatColor.RED + "The partial UUID " + args[0] + " matches multiple animals that you own.");
             } else {
-                parseAccess(sendingPlayer, found.get(0), Arrays.copyOfRange(args, 1, args.length));
+                // Return the horse to the cache if it is only listed from the cold store.
+                SavedHorse savedHorse = EasyRider.DB.findHorse(found.get(0).getUuid());
+                if (savedHorse == null) {
+                    sender.sendMessage(ChatColor.RED + "That animal could not be loaded from the database.");
+                } else {
+                    parseAccess(sendingPlayer, savedHorse, Arrays.copyOfRange(args, 1, args.length));
+                }
             }
         }
         return true;
@@ -110,7 +110,12 @@ public class HorseFreeExecutor extends ExecutorBase {
             } else if (found.size() > 1) {
                 sender.sendMessage(ChatColor.RED + "The identifier \"" + uuidArg + "\" matches multiple animals.");
             } else {
-                SavedHorse savedHorse = found.get(0);
+                // Return the horse to the cache if it is only listed from the cold store.
+                SavedHorse savedHorse = EasyRider.DB.findHorse(found.get(0).getUuid());
+                if (savedHorse == null) {
+                    sender.sendMessage(ChatColor.RED + "That animal could not be loaded from the database.");
+                    return true;
+                }
                 AbstractHorse abstractHorse = Util.findHorse(savedHorse.getUuid(), savedHorse.getLocation(), 2);
                 EasyRider.DB.freeHorse(savedHorse, abstractHorse);
                 String entityTypeName = (abstractHorse != null) ? Util.entityTypeName(abstractHorse) : "animal";
@@ -3,10 +3,9 @@ package nu.nerd.easyrider.commands;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.UUID;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -98,36 +97,61 @@ public class HorseGPSExecutor extends ExecutorBase {
      *                   name of the horse.
      * @return a non-null list of SavedHorses; this will be empty if no match is
      *         found.
+     *
+     *         An exact match of the name takes precedence over names that
+     *         merely begin with the identifier.
      */
     protected List<SavedHorse> findHorses(OfflinePlayer owner, String identifier) {
-        final String lowerIdent = identifier.toLowerCase();
-
-        ArrayList<SavedHorse> horses = EasyRider.DB.getOwnedHorses(owner);
         try {
-            int index = Integer.parseInt(lowerIdent);
+            int index = Integer.parseInt(identifier);
+            ArrayList<SavedHorse> horses = EasyRider.DB.getOwnedHorses(owner);
             if (index > 0 && index <= horses.size()) {
-                return Arrays.asList(horses.get(index - 1));
+                // Return the horse to the cache if it is only listed from the cold store.
+                SavedHorse savedHorse = EasyRider.DB.findHorse(horses.get(index - 1).getUuid());
+                return (savedHorse != null) ? Arrays.asList(savedHorse) : new ArrayList<SavedHorse>();
             }
         } catch (NumberFormatException ex) {
         }
 
-        List<SavedHorse> found = horses.stream()
-            .filter(h -> h.getDisplayName().toLowerCase().startsWith(lowerIdent))
-            .collect(Collectors.toList());
+        UUID ownerUuid = owner.getUniqueId();
+        List<SavedHorse> found = EasyRider.DB.findHorsesByName(ownerUuid, identifier, false);
         if (found.size() > 0) {
             return found;
         }
 
-        found = horses.stream()
-            .filter(h -> h.getUuid().toString().toLowerCase().startsWith(lowerIdent))
-            .collect(Collectors.toList());
+        found = EasyRider.DB.findHorsesByName(ownerUuid, identifier, true);
         if (found.size() > 0) {
             return found;
         }
 
-        return new LinkedList<SavedHorse>();
+        return EasyRider.DB.findHorsesByUUID(ownerUuid, identifier);
     } // findHorses
 
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.commands.ExecutorBase#onTabComplete(org.bukkit.command.CommandSender,
+     *      org.bukkit.command.Command, java.lang.String, java.lang.String[])
+     *
+     *      Complete the names of the sender's horses, or with permission
+     *      easyrider.gps-player, the names of the horses of the online player
+     *      named by the first argument.
+     */
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        List<String> completions = super.onTabComplete(sender, command, alias, args);
+        if (sender instanceof Player) {
+            if (args.length == 1) {
+                completions.addAll(EasyRider.DB.getHorseNames(((Player) sender).getUniqueId(), args[0]));
+            } else if (args.length == 2 && sender.hasPermission("easyrider.gps-player")) {
+                Player owner = Bukkit.getPlayerExact(args[0]);
+                if (owner != null) {
+                    completions.addAll(EasyRider.DB.getHorseNames(owner.getUniqueId(), args[1]));
+                }
+            }
+        }
+        return completions;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Point the player to the horse if it's Location can be ascertained and
@@ -14,6 +14,7 @@ import org.bukkit.entity.Player;
 import nu.nerd.easyrider.Ability;
 import nu.nerd.easyrider.EasyRider;
 import nu.nerd.easyrider.Util;
+import nu.nerd.easyrider.db.HorseSnapshot;
 import nu.nerd.easyrider.db.SavedHorse;
 
 // ----------------------------------------------------------------------------
@@ -90,11 +91,15 @@ public class HorseTopExecutor extends ExecutorBase {
      * Start an asynchronous task to sort all horses by the specified ability
      * and list the specified page of results back to the command sender.
      *
+     * The task sorts a snapshot of all horses, published in the main thread
+     * when this method is called, without locking the database.
+     *
      * @param sender the command sender.
      * @param ability the ability to sort horses into descending order.
      * @param page the 1-based page number to list.
      */
     protected void startSortTask(CommandSender sender, final Ability ability, final int page) {
+        final HorseSnapshot snapshot = EasyRider.DB.publishSnapshot();
         Bukkit.getScheduler().runTaskAsynchronously(EasyRider.PLUGIN, new Runnable() {
             @Override
             public void run() {
@@ -113,7 +118,7 @@ public class HorseTopExecutor extends ExecutorBase {
                     }
                 };
 
-                ArrayList<SavedHorse> trainableHorses = EasyRider.DB.cloneAllHorses().stream()
+                ArrayList<SavedHorse> trainableHorses = snapshot.getHorses().stream()
                 .filter(h -> h.isTrainable())
                 .collect(Collectors.toCollection(ArrayList::new));
                 trainableHorses.sort(comparator);
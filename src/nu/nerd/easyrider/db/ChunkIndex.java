@@ -0,0 +1,177 @@
+package nu.nerd.easyrider.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// --------------------------------------------------------------------------
+/**
+ * Spatial index of horses by the chunk of their most recent location.
+ *
+ * The index maps world index (see {@link WorldNames}) to packed chunk key to
+ * the set of horses last seen in that chunk, so the horses in a chunk are
+ * found in O(1) time rather than by scanning the cache. Horses with no known
+ * location are not indexed.
+ *
+ * As with {@link OwnerIndex}, each horse in the index holds a reference back
+ * to it. SavedHorse.setLocation() reports the previous location, and the
+ * horse is only moved within the index when it crosses a chunk boundary.
+ *
+ * The maps are concurrent, so that the index can be queried in any thread.
+ * Each chunk's horses are a concurrent map keyed by horse UUID, which is
+ * immutable, rather than a set, since SavedHorse.hashCode() depends on
+ * mutable fields, including the location. Chunk maps are added and removed
+ * atomically with ConcurrentHashMap.compute().
+ */
+class ChunkIndex {
+    // --------------------------------------------------------------------------
+    /**
+     * Return the packed key of a chunk.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the key.
+     */
+    static long getKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the chunk coordinate containing the specified block coordinate.
+     *
+     * @param coord the X or Z coordinate.
+     * @return the chunk coordinate.
+     */
+    static int toChunk(double coord) {
+        return ((int) Math.floor(coord)) >> 4;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Add the horse to the index and track subsequent changes to its location.
+     *
+     * @param savedHorse the database horse.
+     */
+    public void add(SavedHorse savedHorse) {
+        savedHorse.setChunkIndex(this);
+        if (savedHorse.hasLocation()) {
+            insert(savedHorse.getWorldIndex(), getKey(toChunk(savedHorse.getX()), toChunk(savedHorse.getZ())),
+                   savedHorse);
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Remove the horse from the index and stop tracking changes to it.
+     *
+     * @param savedHorse the database horse.
+     */
+    public void remove(SavedHorse savedHorse) {
+        if (savedHorse.hasLocation()) {
+            erase(savedHorse.getWorldIndex(), getKey(toChunk(savedHorse.getX()), toChunk(savedHorse.getZ())),
+                  savedHorse);
+        }
+        savedHorse.setChunkIndex(null);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the horses last seen in the specified chunks.
+     *
+     * @param worldName the name of the world.
+     * @param chunkX the X coordinate of the centre chunk.
+     * @param chunkZ the Z coordinate of the centre chunk.
+     * @param chunkRadius the number of chunks around the centre chunk to
+     *        include in each direction; 0 for just the centre chunk.
+     * @return a new list of the horses.
+     */
+    public List<SavedHorse> find(String worldName, int chunkX, int chunkZ, int chunkRadius) {
+        ArrayList<SavedHorse> horses = new ArrayList<SavedHorse>();
+        ConcurrentHashMap<Long, ConcurrentHashMap<UUID, SavedHorse>> chunks = _worlds.get(WorldNames.find(worldName));
+        if (chunks != null) {
+            for (int x = chunkX - chunkRadius; x <= chunkX + chunkRadius; ++x) {
+                for (int z = chunkZ - chunkRadius; z <= chunkZ + chunkRadius; ++z) {
+                    ConcurrentHashMap<UUID, SavedHorse> chunkHorses = chunks.get(getKey(x, z));
+                    if (chunkHorses != null) {
+                        horses.addAll(chunkHorses.values());
+                    }
+                }
+            }
+        }
+        return horses;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Called by the horse after its location has changed, to move it to the
+     * set of its new chunk if necessary.
+     *
+     * @param savedHorse the database horse.
+     * @param oldWorldIndex the index of the world of the previous location, or
+     *        -1 if not known.
+     * @param oldX the previous X coordinate.
+     * @param oldZ the previous Z coordinate.
+     */
+    void moved(SavedHorse savedHorse, int oldWorldIndex, double oldX, double oldZ) {
+        int newWorldIndex = savedHorse.hasLocation() ? savedHorse.getWorldIndex() : -1;
+        long oldKey = getKey(toChunk(oldX), toChunk(oldZ));
+        long newKey = getKey(toChunk(savedHorse.getX()), toChunk(savedHorse.getZ()));
+        if (oldWorldIndex == newWorldIndex && oldKey == newKey) {
+            return;
+        }
+
+        if (oldWorldIndex >= 0) {
+            erase(oldWorldIndex, oldKey, savedHorse);
+        }
+        if (newWorldIndex >= 0) {
+            insert(newWorldIndex, newKey, savedHorse);
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Insert a horse into the set of a chunk.
+     *
+     * @param worldIndex the world index.
+     * @param key the chunk key.
+     * @param savedHorse the database horse.
+     */
+    protected void insert(int worldIndex, long key, SavedHorse savedHorse) {
+        _worlds.computeIfAbsent(worldIndex, k -> new ConcurrentHashMap<Long, ConcurrentHashMap<UUID, SavedHorse>>())
+            .compute(key, (k, horses) -> {
+                if (horses == null) {
+                    horses = new ConcurrentHashMap<UUID, SavedHorse>();
+                }
+                horses.put(savedHorse.getUuid(), savedHorse);
+                return horses;
+            });
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Erase a horse from the set of a chunk.
+     *
+     * @param worldIndex the world index.
+     * @param key the chunk key.
+     * @param savedHorse the database horse.
+     */
+    protected void erase(int worldIndex, long key, SavedHorse savedHorse) {
+        ConcurrentHashMap<Long, ConcurrentHashMap<UUID, SavedHorse>> chunks = _worlds.get(worldIndex);
+        if (chunks != null) {
+            chunks.computeIfPresent(key, (k, horses) -> {
+                horses.remove(savedHorse.getUuid());
+                return horses.isEmpty() ? null : horses;
+            });
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Map from world index to packed chunk key to the horses last seen in that
+     * chunk, by horse UUID. World maps are never removed.
+     */
+    protected ConcurrentHashMap<Integer, ConcurrentHashMap<Long, ConcurrentHashMap<UUID, SavedHorse>>> _worlds = new ConcurrentHashMap<Integer, ConcurrentHashMap<Long, ConcurrentHashMap<UUID, SavedHorse>>>();
+
+} // class ChunkIndex
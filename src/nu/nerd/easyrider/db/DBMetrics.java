@@ -0,0 +1,148 @@
+package nu.nerd.easyrider.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+// --------------------------------------------------------------------------
+/**
+ * Rolling histograms of database performance metrics, such as the time taken
+ * by each phase of loading and saving, and the numbers of horses and bytes
+ * written.
+ *
+ * Each metric keeps its most recent {@link #SAMPLES} values, which are
+ * summarised by {@link #describe()} for /easyrider stats db.
+ *
+ * Metrics are named "<type>.<phase>" for phases of a database implementation
+ * that are common to all operations, e.g. "sqlite.parse" (including reading),
+ * "sqlite.serialise", "sqlite.write" and "sqlite.fsync", where the type is
+ * that of the implementation, so that the primary and secondary of a mirrored
+ * database are recorded separately. Whole operations of {@link HorseDB} are
+ * named "<operation>.<quantity>", e.g. "save.time" and "save.dirty".
+ *
+ * All methods are synchronized, since metrics are recorded in the main thread
+ * and the database I/O threads.
+ */
+public class DBMetrics {
+    // --------------------------------------------------------------------------
+    /**
+     * Record the time elapsed since the specified start time.
+     *
+     * @param name the name of the metric.
+     * @param startNanos the start time, from System.nanoTime().
+     */
+    public void recordTime(String name, long startNanos) {
+        record(name, "ms", 1e-6 * (System.nanoTime() - startNanos));
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Record a value of a metric.
+     *
+     * @param name the name of the metric.
+     * @param units the units of the metric, used when it is first recorded.
+     * @param value the value.
+     */
+    public synchronized void record(String name, String units, double value) {
+        _histograms.computeIfAbsent(name, k -> new Histogram(units)).add(value);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return a description of each metric, in order of name.
+     *
+     * @return one line per metric showing the number of values recorded and
+     *         the minimum, median, 95th percentile and maximum of the recent
+     *         values.
+     */
+    public synchronized List<String> describe() {
+        ArrayList<String> lines = new ArrayList<String>();
+        for (Entry<String, Histogram> entry : _histograms.entrySet()) {
+            lines.add(entry.getKey() + ": " + entry.getValue().describe());
+        }
+        return lines;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * The most recent values of one metric.
+     */
+    protected static final class Histogram {
+        /**
+         * Constructor.
+         *
+         * @param units the units of the values.
+         */
+        Histogram(String units) {
+            _units = units;
+        }
+
+        /**
+         * Add a value, replacing the oldest if full.
+         *
+         * @param value the value.
+         */
+        void add(double value) {
+            _values[(int) (_count % SAMPLES)] = value;
+            ++_count;
+        }
+
+        /**
+         * Describe the recent values.
+         *
+         * @return the description.
+         */
+        String describe() {
+            int size = (int) Math.min(_count, SAMPLES);
+            double[] sorted = Arrays.copyOf(_values, size);
+            Arrays.sort(sorted);
+            return "n=" + _count +
+                   " min=" + format(sorted[0]) +
+                   " p50=" + format(sorted[(size - 1) / 2]) +
+                   " p95=" + format(sorted[(int) Math.ceil(0.95 * size) - 1]) +
+                   " max=" + format(sorted[size - 1]) +
+                   " " + _units;
+        }
+
+        /**
+         * Format a value to at most three significant decimal places.
+         *
+         * @param value the value.
+         * @return the formatted value.
+         */
+        static String format(double value) {
+            return (value == Math.rint(value) && Math.abs(value) < 1e15)
+                ? Long.toString((long) value)
+                : String.format("%.3g", value);
+        }
+
+        /**
+         * The units of the values.
+         */
+        final String _units;
+
+        /**
+         * Ring buffer of the most recent values.
+         */
+        final double[] _values = new double[SAMPLES];
+
+        /**
+         * The total number of values ever added.
+         */
+        long _count;
+    } // class Histogram
+
+    // --------------------------------------------------------------------------
+    /**
+     * The number of recent values kept for each metric.
+     */
+    public static final int SAMPLES = 100;
+
+    /**
+     * Map from metric name to histogram, in order of name.
+     */
+    protected TreeMap<String, Histogram> _histograms = new TreeMap<String, Histogram>();
+
+} // class DBMetrics
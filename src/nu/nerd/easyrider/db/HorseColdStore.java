@@ -0,0 +1,549 @@
+package nu.nerd.easyrider.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+import nu.nerd.easyrider.EasyRider;
+import nu.nerd.easyrider.Util;
+
+// --------------------------------------------------------------------------
+/**
+ * On-disk storage of horses that have not been observed for a long time,
+ * outside of both the in-memory cache and the database.
+ *
+ * Each cold horse is stored in its own file, "<uuid>.bin", containing all of
+ * its fields in the format of {@link SavedHorse#writeFields(DataOutputStream,
+ * int)}, so that it can be read back on its own when needed.
+ *
+ * A compact summary of each cold horse (its owner, name, appearance,
+ * equipment, last location and training) is kept in memory and in an index
+ * file, so that owner listings and the leaderboard can include cold horses
+ * without reading them back.
+ *
+ * Methods that change the cold store must be called in the main thread, with
+ * the {@link HorseDB} locked. The in-memory summaries and indexes are
+ * concurrent, so that queries ({@link #contains(UUID)}, {@link #getSummaries()}
+ * and the lookups by owner, UUID prefix and name) can be made in any thread
+ * without the lock. Files are written in the database I/O thread.
+ */
+class HorseColdStore {
+    // --------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param dir the directory containing the cold store.
+     * @param ioExecutor the executor of the database I/O thread.
+     */
+    HorseColdStore(Path dir, ExecutorService ioExecutor) {
+        _dir = dir;
+        _ioExecutor = ioExecutor;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Load the summaries of all cold horses from the index file.
+     */
+    public void load() {
+        _summaries.clear();
+        _ownedHorses.clear();
+        _uuidIndex.clear();
+        _nameIndex.clear();
+        Path indexFile = _dir.resolve(INDEX_FILE);
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(indexFile)))) {
+            for (int count = in.readInt(); count > 0; --count) {
+                UUID uuid = new UUID(in.readLong(), in.readLong());
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+
+                SavedHorse summary = new SavedHorse();
+                summary.setUuid(uuid);
+                summary.readFields(new DataInputStream(new ByteArrayInputStream(payload)));
+                summary.setClean();
+                addSummary(summary);
+            }
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to read cold horse index: " + ex.getMessage());
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return true if the horse with the specified UUID is in the cold store.
+     *
+     * @param uuid the horse's UUID.
+     * @return true if the horse is in the cold store.
+     */
+    public boolean contains(UUID uuid) {
+        return _summaries.containsKey(uuid);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the number of horses in the cold store.
+     *
+     * @return the number of horses in the cold store.
+     */
+    public int size() {
+        return _summaries.size();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return a number that changes whenever a horse enters or leaves the cold
+     * store.
+     *
+     * @return the version of the set of cold horses.
+     */
+    public long getVersion() {
+        return _version;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the summaries of all cold horses.
+     *
+     * Summaries have only the fields in {@link #SUMMARY_FIELDS} and must not
+     * be modified.
+     *
+     * @return the summaries of all cold horses.
+     */
+    public Collection<SavedHorse> getSummaries() {
+        return Collections.unmodifiableCollection(_summaries.values());
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the UUIDs of the cold horses whose UUID begins with the specified
+     * prefix.
+     *
+     * @param uuidPrefix the case insensitive UUID prefix.
+     * @return the matching UUIDs; may be empty.
+     */
+    public List<UUID> findUuidsByPrefix(String uuidPrefix) {
+        return _uuidIndex.find(uuidPrefix);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the UUIDs of the cold horses whose display name matches, or
+     * begins with, the specified name.
+     *
+     * @param ownerUuid the owner's UUID, or null for all owners.
+     * @param name the case insensitive name or prefix.
+     * @param prefix true for a prefix match; false for an exact match.
+     * @return the matching UUIDs; may be empty.
+     */
+    public List<UUID> findUuidsByName(UUID ownerUuid, String name, boolean prefix) {
+        ArrayList<UUID> uuids = new ArrayList<UUID>();
+        for (SavedHorse summary : _nameIndex.find(ownerUuid, name, prefix)) {
+            uuids.add(summary.getUuid());
+        }
+        return uuids;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Add the display names of cold horses beginning with the specified prefix
+     * to a collection, for tab completion.
+     *
+     * @param names the collection to add to.
+     * @param ownerUuid the owner's UUID, or null for all owners.
+     * @param prefix the case insensitive prefix.
+     */
+    public void addNames(Collection<String> names, UUID ownerUuid, String prefix) {
+        _nameIndex.addNames(names, ownerUuid, prefix);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the summaries of the cold horses owned by the specified player.
+     *
+     * Summaries must not be modified.
+     *
+     * @param ownerUuid the owner's UUID.
+     * @return the summaries of the owner's cold horses; may be empty.
+     */
+    public List<SavedHorse> getOwnedSummaries(UUID ownerUuid) {
+        Set<UUID> uuids = _ownedHorses.get(ownerUuid);
+        if (uuids == null) {
+            return Collections.emptyList();
+        }
+
+        ArrayList<SavedHorse> summaries = new ArrayList<SavedHorse>(uuids.size());
+        for (UUID uuid : uuids) {
+            // Null if faulted in since the set was read.
+            SavedHorse summary = _summaries.get(uuid);
+            if (summary != null) {
+                summaries.add(summary);
+            }
+        }
+        return summaries;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Move copies of horses from the database into the cold store.
+     *
+     * Summaries of the horses are added immediately. The files of the horses
+     * are written in the I/O thread, after any writes already queued, and only
+     * the horses whose files were written are then deleted from the database,
+     * in the same task. Horses whose files could not be written stay in the
+     * database, and are returned by the next call to
+     * {@link #takeFailedEvictions()}, so that they can be returned to the
+     * cache; until then, they are read from their copies if faulted in.
+     *
+     * @param copies copies of the horses, as made by {@link SavedHorse#clone()}.
+     * @param impl the database implementation from which to delete the horses.
+     */
+    public void evict(Collection<SavedHorse> copies, IHorseDBImpl impl) {
+        for (SavedHorse copy : copies) {
+            addSummary(summarise(copy));
+            _pendingHorses.put(copy.getUuid(), copy);
+            _faultedHorses.remove(copy.getUuid());
+        }
+
+        _ioExecutor.execute(() -> {
+            ArrayList<SavedHorse> written = new ArrayList<SavedHorse>(copies.size());
+            for (SavedHorse copy : copies) {
+                Path file = getHorseFile(copy.getUuid());
+                try {
+                    Files.createDirectories(_dir);
+                    Util.writeAtomically(file, f -> Files.write(f, encode(copy, SavedHorse.ALL_FIELDS)));
+                    written.add(copy);
+                    _pendingHorses.remove(copy.getUuid(), copy);
+                } catch (IOException ex) {
+                    EasyRider.PLUGIN.getLogger().severe("Unable to write cold horse " + file + ": " + ex.getMessage());
+                    _failedEvictions.add(copy);
+                }
+            }
+
+            if (!written.isEmpty()) {
+                try {
+                    impl.delete(written);
+                } catch (IOException ex) {
+                    // The database takes precedence when both have the horse.
+                    EasyRider.PLUGIN.getLogger().severe("Unable to delete cold horses from the database: " +
+                                                        ex.getMessage());
+                }
+            }
+        });
+        _indexChanged = true;
+        flush();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Remove the horses whose files could not be written by
+     * {@link #evict(Collection, IHorseDBImpl)} from the cold store and return
+     * them in full, so that they can be returned to the cache.
+     *
+     * Horses that have already been faulted in are not returned again.
+     *
+     * @return the horses, which are still in the database; may be empty.
+     */
+    public List<SavedHorse> takeFailedEvictions() {
+        ArrayList<SavedHorse> horses = new ArrayList<SavedHorse>();
+        for (SavedHorse copy = _failedEvictions.poll(); copy != null; copy = _failedEvictions.poll()) {
+            SavedHorse savedHorse = fault(copy.getUuid());
+            _pendingHorses.remove(copy.getUuid(), copy);
+            if (savedHorse != null) {
+                horses.add(savedHorse);
+            }
+        }
+        return horses;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Remove a horse from the cold store and return it in full, so that it can
+     * be returned to the cache.
+     *
+     * The horse is read from its file in the calling thread, unless it has not
+     * been written yet. The returned horse is marked new, so that it will be
+     * inserted into the database. Its file is deleted by the next
+     * {@link #flush()}.
+     *
+     * @param uuid the horse's UUID.
+     * @return the horse, or null if not in the cold store or if it could not
+     *         be read.
+     */
+    public SavedHorse fault(UUID uuid) {
+        SavedHorse summary = removeSummary(uuid);
+        if (summary == null) {
+            return null;
+        }
+        _indexChanged = true;
+        _faultedHorses.add(uuid);
+
+        SavedHorse savedHorse = new SavedHorse();
+        savedHorse.setUuid(uuid);
+        try {
+            byte[] payload;
+            SavedHorse pending = _pendingHorses.get(uuid);
+            if (pending != null) {
+                payload = encode(pending, SavedHorse.ALL_FIELDS);
+            } else {
+                payload = Files.readAllBytes(getHorseFile(uuid));
+            }
+            savedHorse.readFields(new DataInputStream(new ByteArrayInputStream(payload)));
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to read cold horse " + uuid + ": " + ex.getMessage());
+            return null;
+        }
+        savedHorse.setNew();
+        return savedHorse;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Forget a horse that is also in the database, which takes precedence.
+     *
+     * This happens if the server stopped while a horse was being moved to or
+     * from the cold store.
+     *
+     * @param uuid the horse's UUID.
+     */
+    public void discard(UUID uuid) {
+        if (removeSummary(uuid) != null) {
+            _indexChanged = true;
+            _faultedHorses.add(uuid);
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * If the set of cold horses has changed, write the index in the I/O
+     * thread, then delete the files of horses that have left the cold store.
+     */
+    public void flush() {
+        if (!_indexChanged) {
+            return;
+        }
+
+        ArrayList<SavedHorse> summaries = new ArrayList<SavedHorse>(_summaries.values());
+        ArrayList<UUID> faultedHorses = new ArrayList<UUID>(_faultedHorses);
+        _faultedHorses.clear();
+        _indexChanged = false;
+        _ioExecutor.execute(() -> {
+            try {
+                Files.createDirectories(_dir);
+                Util.writeAtomically(_dir.resolve(INDEX_FILE), file -> writeIndex(file, summaries));
+                for (UUID uuid : faultedHorses) {
+                    Files.deleteIfExists(getHorseFile(uuid));
+                }
+            } catch (IOException ex) {
+                EasyRider.PLUGIN.getLogger().severe("Unable to write cold horse index: " + ex.getMessage());
+            }
+        });
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Write the index file.
+     *
+     * @param file the path to the file.
+     * @param summaries the summaries of all cold horses.
+     * @throws IOException if the file cannot be written.
+     */
+    protected void writeIndex(Path file, List<SavedHorse> summaries) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(summaries.size());
+            for (SavedHorse summary : summaries) {
+                out.writeLong(summary.getUuid().getMostSignificantBits());
+                out.writeLong(summary.getUuid().getLeastSignificantBits());
+                byte[] payload = encode(summary, SUMMARY_FIELDS);
+                out.writeInt(payload.length);
+                out.write(payload);
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Add a summary to the in-memory index.
+     *
+     * @param summary the summary.
+     */
+    protected void addSummary(SavedHorse summary) {
+        ++_version;
+        _summaries.put(summary.getUuid(), summary);
+        _uuidIndex.add(summary.getUuid());
+        _nameIndex.add(summary);
+        if (summary.getOwnerUuid() != null) {
+            _ownedHorses.computeIfAbsent(summary.getOwnerUuid(), k -> ConcurrentHashMap.newKeySet()).add(summary.getUuid());
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Remove a summary from the in-memory index.
+     *
+     * @param uuid the horse's UUID.
+     * @return the removed summary, or null if not found.
+     */
+    protected SavedHorse removeSummary(UUID uuid) {
+        SavedHorse summary = _summaries.remove(uuid);
+        if (summary != null) {
+            ++_version;
+            _uuidIndex.remove(uuid);
+            _nameIndex.remove(summary);
+        }
+        if (summary != null && summary.getOwnerUuid() != null) {
+            _ownedHorses.computeIfPresent(summary.getOwnerUuid(), (k, uuids) -> {
+                uuids.remove(uuid);
+                return uuids.isEmpty() ? null : uuids;
+            });
+        }
+        return summary;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the path to the file containing the specified cold horse.
+     *
+     * @param uuid the horse's UUID.
+     * @return the path to the file.
+     */
+    protected Path getHorseFile(UUID uuid) {
+        return _dir.resolve(uuid.toString() + ".bin");
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return a summary of a horse with only the fields in
+     * {@link #SUMMARY_FIELDS}.
+     *
+     * @param savedHorse the horse.
+     * @return the summary.
+     */
+    protected static SavedHorse summarise(SavedHorse savedHorse) {
+        SavedHorse summary = new SavedHorse();
+        summary.setUuid(savedHorse.getUuid());
+        try {
+            byte[] payload = encode(savedHorse, SUMMARY_FIELDS);
+            summary.readFields(new DataInputStream(new ByteArrayInputStream(payload)));
+        } catch (IOException ex) {
+            // Should never happen with in-memory streams.
+        }
+        summary.setClean();
+        return summary;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Encode the specified fields of a horse.
+     *
+     * @param savedHorse the horse.
+     * @param fields a bitwise OR of the field constants of the fields.
+     * @return the encoded fields.
+     * @throws IOException if the fields cannot be encoded.
+     */
+    protected static byte[] encode(SavedHorse savedHorse, int fields) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            savedHorse.writeFields(out, fields);
+        }
+        return bytes.toByteArray();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * The fields kept in the summary of a cold horse: those needed to list a
+     * horse and to rank it on the leaderboard.
+     *
+     * Fields are encoded with their indices, so summaries in an index file
+     * written with fewer fields are still read, without the missing fields.
+     */
+    protected static final int SUMMARY_FIELDS = SavedHorse.OWNER_UUID | SavedHorse.NAME |
+                                                 SavedHorse.DISPLAY_NAME | SavedHorse.APPEARANCE |
+                                                 SavedHorse.LOCATION | SavedHorse.EQUIPMENT |
+                                                 SavedHorse.DISTANCE_TRAVELLED | SavedHorse.DISTANCE_JUMPED |
+                                                 SavedHorse.NUGGETS_EATEN | SavedHorse.SPEED_LEVEL |
+                                                 SavedHorse.JUMP_LEVEL | SavedHorse.HEALTH_LEVEL |
+                                                 SavedHorse.LAST_OBSERVED | SavedHorse.LAST_TAMED;
+
+    /**
+     * Name of the index file.
+     */
+    protected static final String INDEX_FILE = "index.bin";
+
+    /**
+     * The directory containing the cold store.
+     */
+    protected Path _dir;
+
+    /**
+     * The executor of the database I/O thread.
+     */
+    protected ExecutorService _ioExecutor;
+
+    /**
+     * Map from UUID to summary of each cold horse.
+     */
+    protected ConcurrentHashMap<UUID, SavedHorse> _summaries = new ConcurrentHashMap<UUID, SavedHorse>();
+
+    /**
+     * Map from owner UUID to the UUIDs of that owner's cold horses.
+     */
+    protected ConcurrentHashMap<UUID, Set<UUID>> _ownedHorses = new ConcurrentHashMap<UUID, Set<UUID>>();
+
+    /**
+     * Index of the UUIDs of cold horses by prefix.
+     */
+    protected UuidPrefixIndex _uuidIndex = new UuidPrefixIndex();
+
+    /**
+     * Index of the summaries of cold horses by display name. Summaries are
+     * never modified, so they are only added and removed.
+     */
+    protected NameIndex _nameIndex = new NameIndex();
+
+    /**
+     * Copies of evicted horses whose files have not been written yet; accessed
+     * in both the main and I/O threads.
+     */
+    protected ConcurrentHashMap<UUID, SavedHorse> _pendingHorses = new ConcurrentHashMap<UUID, SavedHorse>();
+
+    /**
+     * Copies of evicted horses whose files could not be written; added in the
+     * I/O thread and taken in the main thread.
+     */
+    protected ConcurrentLinkedQueue<SavedHorse> _failedEvictions = new ConcurrentLinkedQueue<SavedHorse>();
+
+    /**
+     * UUIDs of horses that have left the cold store since the index was last
+     * written, whose files are to be deleted.
+     */
+    protected HashSet<UUID> _faultedHorses = new HashSet<UUID>();
+
+    /**
+     * True if the set of cold horses has changed since the index was last
+     * written.
+     */
+    protected boolean _indexChanged;
+
+    /**
+     * Incremented whenever a horse enters or leaves the cold store.
+     */
+    protected long _version;
+
+} // class HorseColdStore
@@ -1,12 +1,22 @@
 package nu.nerd.easyrider.db;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Material;
 import org.bukkit.OfflinePlayer;
@@ -23,17 +33,41 @@ import nu.nerd.easyrider.Util;
 /**
  * Encapsulates {@link SavedHorse} database access.
  * 
- * The current implementation makes no effort to save the database until the
- * save() method is called when the plugin is disabled.
+ * Changes are written behind: {@link #flush(int)} is called periodically in
+ * the main thread to copy the state of dirty horses, and the copies are then
+ * written to the database in a dedicated I/O thread. The remaining changes are
+ * written by {@link #save()} when the plugin is disabled.
+ *
+ * Changes are also recorded in a {@link HorseJournal}, which is committed more
+ * frequently and replayed by {@link #load()}, so that changes made since the
+ * last write to the database survive a crash.
+ *
+ * Horses that have not been observed for a long time can be moved out of the
+ * cache and the database into a {@link HorseColdStore}, by
+ * {@link #evictColdHorses(long)}. They are returned to the cache when next
+ * looked up in the main thread.
+ *
+ * Lookups do not lock the HorseDB: the cache, the cold store summaries and
+ * the indexes of cached horses by UUID prefix, owner, name and chunk are all
+ * concurrent, so they can be read in any thread, e.g. by asynchronous command
+ * tasks, without contending with the main thread. The HorseDB monitor is
+ * only held by operations that add horses to, or remove them from, the cache
+ * or the cold store, and by loading, saving and migration. SavedHorse
+ * instances themselves are only modified in the main thread; other threads
+ * should read their fields from a {@link HorseSnapshot}. For the same reason,
+ * returning a cold horse to the cache modifies it and queues it in the
+ * journal, so lookups in other threads only return cached horses.
  */
 public class HorseDB {
     // ------------------------------------------------------------------------
     /**
      * Constructor.
      *
-     * @param implType identifies the database implementation; one of "sqlite",
-     *        "yaml" or "sqlite+yaml". If an invalid identifier is specified,
-     *        the implementation defaults to "yaml".
+     * @param implType identifies the database implementation; one of
+     *        "sqlite", "binary", "sharded-yaml" or "yaml", or two of those
+     *        joined by "+" to mirror writes to a secondary, e.g.
+     *        "sqlite+yaml". If an invalid identifier is specified, the
+     *        implementation defaults to "yaml".
      */
     public HorseDB(String implType) {
         _impl = makeHorseDBImpl(implType);
@@ -42,6 +76,8 @@ public class HorseDB {
             EasyRider.PLUGIN.getLogger().severe("Invalid database implementation: \"" +
                                                 implType + "\" defaulting to \"yaml\".");
         }
+        _journal = new HorseJournal(new File(EasyRider.PLUGIN.getDataFolder(), JOURNAL_FILE).toPath(), _ioExecutor);
+        _coldStore = new HorseColdStore(new File(EasyRider.PLUGIN.getDataFolder(), COLD_DIR).toPath(), _ioExecutor);
     }
 
     // ------------------------------------------------------------------------
@@ -51,8 +87,21 @@ public class HorseDB {
      * 
      * @param abstractHorse the AbstractHorse entity.
      */
-    public synchronized SavedHorse findOrAddHorse(AbstractHorse abstractHorse) {
+    public SavedHorse findOrAddHorse(AbstractHorse abstractHorse) {
         SavedHorse savedHorse = findHorse(abstractHorse);
+        return (savedHorse != null) ? savedHorse : addHorse(abstractHorse);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a new SavedHorse for the specified AbstractHorse to the cache, unless
+     * it was added by another thread since it was looked up.
+     *
+     * @param abstractHorse the AbstractHorse entity.
+     * @return the SavedHorse.
+     */
+    protected synchronized SavedHorse addHorse(AbstractHorse abstractHorse) {
+        SavedHorse savedHorse = _cache.get(abstractHorse.getUniqueId());
         if (savedHorse == null) {
             savedHorse = new SavedHorse(abstractHorse);
             _cache.put(savedHorse.getUuid(), savedHorse);
@@ -68,6 +117,8 @@ public class HorseDB {
             if (trainable) {
                 savedHorse.updateAllAttributes(abstractHorse);
             }
+            addToIndexes(savedHorse);
+            savedHorse.setJournal(_journal);
         }
         return savedHorse;
     }
@@ -76,50 +127,233 @@ public class HorseDB {
     /**
      * Return the SavedHorse corresponding to the in-game AbstractHorse entity,
      * or null if not stored in the database.
+     *
+     * A horse in the cold store is returned to the cache, if called in the
+     * main thread.
      * 
      * @param abstractHorse the AbstractHorse to find.
      * @return the corresponding database entry, or null if never saved.
      */
-    public synchronized SavedHorse findHorse(AbstractHorse abstractHorse) {
-        return _cache.get(abstractHorse.getUniqueId());
+    public SavedHorse findHorse(AbstractHorse abstractHorse) {
+        return findHorse(abstractHorse.getUniqueId());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the SavedHorse with the specified UUID, or null if not stored in
+     * the database.
+     *
+     * A horse in the cold store is returned to the cache, if called in the
+     * main thread. Commands that list
+     * horses with {@link #getOwnedHorses(UUID)} use this to get the full horse
+     * that they act on.
+     *
+     * @param uuid the horse's UUID.
+     * @return the corresponding database entry, or null if never saved.
+     */
+    public SavedHorse findHorse(UUID uuid) {
+        SavedHorse savedHorse = _cache.get(uuid);
+        if (savedHorse == null && _coldStore.contains(uuid)) {
+            savedHorse = faultIn(uuid);
+        }
+        return savedHorse;
     }
 
     // --------------------------------------------------------------------------
     /**
      * Return a list of all horses whose UUID begins with the specified prefix.
      *
+     * Matching horses in the cold store are returned to the cache if called in
+     * the main thread, and omitted otherwise.
+     *
+     * Both the cache and the cold store are searched through an index of UUIDs
+     * by prefix, rather than by formatting the UUID of every horse.
+     *
      * @param uuidPrefix the case insensitive UUID prefix to search for.
      * @return a list of all horses whose UUID begins with the specified prefix.
      */
-    public synchronized List<SavedHorse> findHorsesByUUID(String uuidPrefix) {
-        uuidPrefix = uuidPrefix.toLowerCase();
+    public List<SavedHorse> findHorsesByUUID(String uuidPrefix) {
+        return findHorsesByUUID(null, uuidPrefix);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return a list of the horses whose UUID begins with the specified prefix.
+     *
+     * Matching horses in the cold store are returned to the cache if called in
+     * the main thread, and omitted otherwise.
+     *
+     * Horses of all owners are searched through an index of UUIDs by prefix.
+     * The horses of a single owner are few enough to match one by one, so only
+     * that owner's cold horses are faulted in, rather than every match.
+     *
+     * @param ownerUuid the UUID of the owner of the horses, or null to search
+     *        horses of all owners.
+     * @param uuidPrefix the case insensitive UUID prefix to search for.
+     * @return a list of all matching horses.
+     */
+    public List<SavedHorse> findHorsesByUUID(UUID ownerUuid, String uuidPrefix) {
+        if (ownerUuid != null) {
+            ArrayList<SavedHorse> matches = new ArrayList<SavedHorse>();
+            for (SavedHorse savedHorse : _ownerIndex.get(ownerUuid)) {
+                if (UuidPrefixIndex.matches(savedHorse.getUuid(), uuidPrefix)) {
+                    matches.add(savedHorse);
+                }
+            }
+            for (SavedHorse summary : _coldStore.getOwnedSummaries(ownerUuid)) {
+                if (UuidPrefixIndex.matches(summary.getUuid(), uuidPrefix)) {
+                    SavedHorse savedHorse = faultIn(summary.getUuid());
+                    if (savedHorse != null) {
+                        matches.add(savedHorse);
+                    }
+                }
+            }
+            return matches;
+        }
+
         ArrayList<SavedHorse> matches = new ArrayList<SavedHorse>();
-        for (SavedHorse savedHorse : _cache.values()) {
-            if (savedHorse.getUuid().toString().startsWith(uuidPrefix)) {
+        for (UUID uuid : _uuidIndex.find(uuidPrefix)) {
+            // Null if removed from the cache since the index was searched.
+            SavedHorse savedHorse = _cache.get(uuid);
+            if (savedHorse != null) {
+                matches.add(savedHorse);
+            }
+        }
+
+        // The list is a copy, since faulting in removes from the cold index.
+        List<UUID> coldMatches = _coldStore.findUuidsByPrefix(uuidPrefix);
+        for (UUID uuid : coldMatches) {
+            SavedHorse savedHorse = faultIn(uuid);
+            if (savedHorse != null) {
                 matches.add(savedHorse);
             }
         }
         return matches;
     }
 
+    // --------------------------------------------------------------------------
+    /**
+     * Return a list of all horses whose display name matches, or begins with,
+     * the specified name.
+     *
+     * Matching horses in the cold store are returned to the cache if called in
+     * the main thread, and omitted otherwise.
+     *
+     * @param ownerUuid the UUID of the owner of the horses, or null to search
+     *        horses of all owners.
+     * @param name the case insensitive name or prefix to search for.
+     * @param prefix if true, match names beginning with name; otherwise, match
+     *        name exactly.
+     * @return a list of all matching horses.
+     */
+    public List<SavedHorse> findHorsesByName(UUID ownerUuid, String name, boolean prefix) {
+        List<SavedHorse> matches = _nameIndex.find(ownerUuid, name, prefix);
+        for (UUID uuid : _coldStore.findUuidsByName(ownerUuid, name, prefix)) {
+            SavedHorse savedHorse = faultIn(uuid);
+            if (savedHorse != null) {
+                matches.add(savedHorse);
+            }
+        }
+        return matches;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the distinct display names of horses beginning with the specified
+     * prefix, for tab completion.
+     *
+     * Horses in the cold store are included, but are not returned to the
+     * cache.
+     *
+     * @param ownerUuid the UUID of the owner of the horses, or null to search
+     *        horses of all owners.
+     * @param prefix the case insensitive prefix.
+     * @return the names, in case insensitive order.
+     */
+    public List<String> getHorseNames(UUID ownerUuid, String prefix) {
+        TreeSet<String> names = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        _nameIndex.addNames(names, ownerUuid, prefix);
+        _coldStore.addNames(names, ownerUuid, prefix);
+        return new ArrayList<String>(names);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the cached horses whose most recent location is in or near the
+     * specified chunk.
+     *
+     * Horses in the cold store are not included, since they have not been
+     * seen for a long time.
+     *
+     * @param worldName the name of the world.
+     * @param chunkX the X coordinate of the centre chunk.
+     * @param chunkZ the Z coordinate of the centre chunk.
+     * @param chunkRadius the number of chunks around the centre chunk to
+     *        include in each direction; 0 for just the centre chunk.
+     * @return a list of the horses, in arbitrary order.
+     */
+    public List<SavedHorse> findHorsesInChunks(String worldName, int chunkX, int chunkZ, int chunkRadius) {
+        return _chunkIndex.find(worldName, chunkX, chunkZ, chunkRadius);
+    }
+
     // ------------------------------------------------------------------------
     /**
-     * Return a deep copy of all SavedHorses in arbitrary order.
+     * Publish a new snapshot of all horses if any horse has changed since the
+     * last one, and return the current snapshot.
+     *
+     * The snapshot is built incrementally: only horses that have changed
+     * since they were last copied are copied again; unchanged copies are
+     * shared with the previous snapshot. Horses in the cold store are
+     * included as their summaries, which have the owner, name, appearance
+     * equipment, location and training of the horse, but not its inventory.
      *
-     * The returned list can be acted upon in other threads.
+     * This method must be called in the main thread.
      *
-     * @return a deep copy of all SavedHorses in arbitrary order.
+     * @return the current snapshot.
      */
-    public synchronized ArrayList<SavedHorse> cloneAllHorses() {
-        ArrayList<SavedHorse> horses = new ArrayList<SavedHorse>(_cache.size());
+    public synchronized HorseSnapshot publishSnapshot() {
+        boolean changed = (_snapshotColdVersion != _coldStore.getVersion());
         for (SavedHorse savedHorse : _cache.values()) {
-            try {
-                horses.add((SavedHorse) savedHorse.clone());
-            } catch (CloneNotSupportedException ex) {
-                // Should never happen.
+            SavedHorse copy = _snapshotCopies.get(savedHorse);
+            if (copy == null || copy.getModCount() != savedHorse.getModCount()) {
+                try {
+                    _snapshotCopies.put(savedHorse, (SavedHorse) savedHorse.clone());
+                    changed = true;
+                } catch (CloneNotSupportedException ex) {
+                    // Should never happen.
+                }
             }
         }
-        return horses;
+
+        if (_snapshotCopies.size() != _cache.size()) {
+            _snapshotCopies.keySet().removeIf(h -> _cache.get(h.getUuid()) != h);
+            changed = true;
+        }
+
+        if (changed || _snapshot == null) {
+            ArrayList<SavedHorse> horses = new ArrayList<SavedHorse>(_snapshotCopies.size() + _coldStore.size());
+            horses.addAll(_snapshotCopies.values());
+            horses.addAll(_coldStore.getSummaries());
+            _snapshotColdVersion = _coldStore.getVersion();
+            long version = (_snapshot == null) ? 1 : _snapshot.getVersion() + 1;
+            _snapshot = new HorseSnapshot(version, horses);
+        }
+        return _snapshot;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the most recently published snapshot of all horses, without
+     * locking.
+     *
+     * This method can be called in any thread.
+     *
+     * @return the most recently published snapshot, or null if none has been
+     *         published.
+     * @see #publishSnapshot()
+     */
+    public HorseSnapshot getSnapshot() {
+        return _snapshot;
     }
 
     // --------------------------------------------------------------------------
@@ -132,7 +366,110 @@ public class HorseDB {
     public synchronized void removeHorse(SavedHorse savedHorse) {
         _cache.remove(savedHorse.getUuid());
         _removedHorses.put(savedHorse.getUuid(), savedHorse);
-        removeOwnedHorse(savedHorse.getOwnerUuid(), savedHorse);
+        _journal.logRemove(savedHorse);
+        savedHorse.setJournal(null);
+        removeFromIndexes(savedHorse);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Move horses that have not been observed for the specified time from the
+     * cache and the database into the cold store.
+     *
+     * Only horses that are already up to date in the database are moved, so
+     * that the database and the cold store hold the same state of each horse
+     * until it has been deleted from the database. Each horse is only deleted
+     * from the database once its cold store file has been written, in the same
+     * I/O task. Horses whose files could not be written are returned to the
+     * cache by the next call to this method or {@link #flush(int)}.
+     *
+     * This method must be called in the main thread.
+     *
+     * @param maxAgeMillis the time in milliseconds since a horse was last
+     *        observed after which it is moved.
+     */
+    public synchronized void evictColdHorses(long maxAgeMillis) {
+        returnFailedEvictions();
+        long start = System.nanoTime();
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        ArrayList<SavedHorse> copies = new ArrayList<SavedHorse>();
+        for (Iterator<SavedHorse> it = _cache.values().iterator(); it.hasNext();) {
+            SavedHorse savedHorse = it.next();
+            if (savedHorse.getLastObserved() < cutoff && !savedHorse.isNew() && !savedHorse.isDirty()) {
+                try {
+                    copies.add((SavedHorse) savedHorse.clone());
+                } catch (CloneNotSupportedException ex) {
+                    // Should never happen.
+                    continue;
+                }
+                it.remove();
+                removeFromIndexes(savedHorse);
+                savedHorse.setJournal(null);
+            }
+        }
+        if (copies.isEmpty()) {
+            return;
+        }
+
+        _coldStore.evict(copies, _impl);
+
+        if (EasyRider.CONFIG.DEBUG_SAVES) {
+            double millis = 1e-6 * (System.nanoTime() - start);
+            EasyRider.PLUGIN.getLogger().info("Moved " + copies.size() + " horses to cold store in " + millis + " ms (" +
+                                              _coldStore.size() + " horses in cold store)");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return horses that could not be moved to the cold store to the cache.
+     *
+     * They are still in the database, but are marked new, so that they are
+     * written again.
+     *
+     * This method must be called in the main thread, with the HorseDB locked.
+     */
+    protected void returnFailedEvictions() {
+        for (SavedHorse savedHorse : _coldStore.takeFailedEvictions()) {
+            if (_cache.putIfAbsent(savedHorse.getUuid(), savedHorse) == null) {
+                addToIndexes(savedHorse);
+                savedHorse.setJournal(_journal);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a horse in the cold store to the cache.
+     *
+     * If the horse has already been returned to the cache, the cached horse is
+     * returned.
+     *
+     * The returned horse is journalled, which is not thread-safe, so horses
+     * are only returned to the cache in the main thread. In other threads,
+     * this method only returns a cached horse.
+     *
+     * @param uuid the horse's UUID.
+     * @return the horse, or null if it is not in the cold store or could not
+     *         be read, or if called outside of the main thread and the horse
+     *         is not cached.
+     */
+    protected synchronized SavedHorse faultIn(UUID uuid) {
+        SavedHorse cachedHorse = _cache.get(uuid);
+        if (cachedHorse != null || !Bukkit.isPrimaryThread()) {
+            return cachedHorse;
+        }
+
+        SavedHorse savedHorse = _coldStore.fault(uuid);
+        if (savedHorse != null) {
+            _cache.put(uuid, savedHorse);
+            addToIndexes(savedHorse);
+            savedHorse.setJournal(_journal);
+            if (EasyRider.CONFIG.DEBUG_FINDS) {
+                EasyRider.PLUGIN.getLogger().info("Returned horse " + uuid + " from cold store.");
+            }
+        }
+        return savedHorse;
     }
 
     // ------------------------------------------------------------------------
@@ -155,29 +492,24 @@ public class HorseDB {
      * before llamas), then by tamed time stamp (longest tamed first) and
      * finally, all else being equal (unlikely) by UUID.
      *
+     * The owner index is kept in this order as horses change, so the cached
+     * horses are a copy of it, without sorting. The player's horses in the
+     * cold store are included as their summaries, which are only suitable for
+     * listing and must not be modified; they are merged into the list only if
+     * the player has any. To act on a listed horse, look it up with
+     * {@link #findHorse(UUID)}, which returns it to the cache.
+     *
      * @param ownerUuid the owning player's UUID.
      * @return the horses owned by the player with the specified UUID.
      */
     public ArrayList<SavedHorse> getOwnedHorses(UUID ownerUuid) {
-        // Remove horses that have changed to a different owner.
-        TreeSet<SavedHorse> horses = getOwnedHorsesSet(ownerUuid);
-        for (Iterator<SavedHorse> it = horses.iterator(); it.hasNext();) {
-            SavedHorse savedHorse = it.next();
-            if (!ownerUuid.equals(savedHorse.getOwnerUuid())) {
-                it.remove();
-            }
+        ArrayList<SavedHorse> horses = _ownerIndex.get(ownerUuid);
+        List<SavedHorse> summaries = _coldStore.getOwnedSummaries(ownerUuid);
+        if (!summaries.isEmpty()) {
+            horses.addAll(summaries);
+            horses.sort(OwnerIndex.DISPLAY_ORDER);
         }
-
-        ArrayList<SavedHorse> sorted = new ArrayList<SavedHorse>(horses);
-        sorted.sort((h1, h2) -> {
-            if (h1.isTrainable() == h2.isTrainable()) {
-                int tamedComparison = Long.compare(h1.getLastTamed(), h2.getLastTamed());
-                return (tamedComparison == 0) ? h1.getUuid().compareTo(h2.getUuid()) : tamedComparison;
-            } else {
-                return h1.isTrainable() ? -1 : 1;
-            }
-        });
-        return sorted;
+        return horses;
     }
 
     // ------------------------------------------------------------------------
@@ -192,6 +524,9 @@ public class HorseDB {
      * task and will spontaneously reappear on the owner's list. That shouldn't
      * be a big deal.
      *
+     * This method must be called in the main thread. It does not lock the
+     * HorseDB, since the indexes it updates are concurrent.
+     *
      * @param savedHorse the database state of the horse.
      * @param abstractHorse the AbstractHorse Entity.
      */
@@ -219,7 +554,6 @@ public class HorseDB {
             abstractHorse.setCustomName(null);
             observe(savedHorse, abstractHorse);
         } else {
-            removeOwnedHorse(savedHorse.getOwnerUuid(), savedHorse);
             savedHorse.setOwnerUuid(null);
         }
     }
@@ -227,8 +561,12 @@ public class HorseDB {
     // ------------------------------------------------------------------------
     /**
      * Update the SavedHorse to reflect the current state of the AbstractHorse
-     * Entity as it is observed in the world and update the mapping from owners
-     * to sets of owned horses.
+     * Entity as it is observed in the world.
+     *
+     * The owner index is updated by the SavedHorse when its owner changes. The
+     * permitted players of the previous owner are cleared.
+     *
+     * This method must be called in the main thread.
      *
      * @see SavedHorse#observe(AbstractHorse)
      * @param savedHorse the database state of the horse.
@@ -239,19 +577,35 @@ public class HorseDB {
         AnimalTamer owner = abstractHorse.getOwner();
         UUID newOwnerUuid = (owner == null) ? null : owner.getUniqueId();
         if (oldOwnerUuid != null && !oldOwnerUuid.equals(newOwnerUuid)) {
-            removeOwnedHorse(oldOwnerUuid, savedHorse);
+            savedHorse.clearPermittedPlayers();
         }
-        addOwnedHorse(newOwnerUuid, savedHorse);
         savedHorse.observe(abstractHorse);
     }
 
     // ------------------------------------------------------------------------
     /**
      * Make a backup of the database, if that is possible (e.g. backed by a
-     * file).
+     * file), without blocking the calling thread.
+     *
+     * The backup is queued in the I/O thread, so that it never overlaps a
+     * write to the database. It must not be called before {@link #load()},
+     * which reads the database in the calling thread.
      */
     public synchronized void backup() {
-        _impl.backup();
+        final IHorseDBImpl impl = _impl;
+        _ioExecutor.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                impl.backup();
+            } catch (Exception ex) {
+                EasyRider.PLUGIN.getLogger().severe("Database backup failed: " + ex.getMessage());
+            }
+
+            if (EasyRider.CONFIG.DEBUG_SAVES) {
+                double millis = 1e-6 * (System.nanoTime() - start);
+                EasyRider.PLUGIN.getLogger().info("Database backup time: " + millis + " ms");
+            }
+        });
     }
 
     // ------------------------------------------------------------------------
@@ -260,44 +614,115 @@ public class HorseDB {
      * 
      * On the first run, initialise the schema.
      *
+     * The journal is replayed over the loaded horses to recover changes that
+     * were not written to the database before the server stopped. Horses that
+     * are both in the database and the cold store, because the server stopped
+     * while moving them, are taken from the database.
+     *
      * Ownerless, abandoned horses are queued for removal from the database and
      * are not loaded into the cache.
      */
     public synchronized void load() {
         long now = System.currentTimeMillis();
+        long start = System.nanoTime();
+        HashMap<UUID, SavedHorse> loadedHorses = new HashMap<UUID, SavedHorse>();
         for (SavedHorse savedHorse : _impl.loadAll()) {
+            loadedHorses.put(savedHorse.getUuid(), savedHorse);
+        }
+
+        long journalStart = System.nanoTime();
+        _coldStore.load();
+        int records = _journal.replay(loadedHorses, _removedHorses, _coldStore);
+        if (records != 0) {
+            EasyRider.PLUGIN.getLogger().info("Replayed " + records + " horse journal records.");
+        }
+        for (UUID uuid : loadedHorses.keySet()) {
+            _coldStore.discard(uuid);
+        }
+        METRICS.recordTime("load.journal", journalStart);
+
+        long indexStart = System.nanoTime();
+        for (SavedHorse savedHorse : loadedHorses.values()) {
             if (savedHorse.isAbandoned() && savedHorse.getOwnerUuid() == null) {
                 _removedHorses.put(savedHorse.getUuid(), savedHorse);
             } else {
                 _cache.put(savedHorse.getUuid(), savedHorse);
-                addOwnedHorse(savedHorse.getOwnerUuid(), savedHorse);
+                addToIndexes(savedHorse);
+                savedHorse.setJournal(_journal);
             }
         }
+        METRICS.recordTime("load.index", indexStart);
+        METRICS.recordTime("load.time", start);
+        METRICS.record("load.horses", "horses", loadedHorses.size());
 
         long millis = System.currentTimeMillis() - now;
-        EasyRider.PLUGIN.getLogger().info("Database load time: " + millis + " ms");
+        EasyRider.PLUGIN.getLogger().info("Database load time: " + millis + " ms (" +
+                                          _coldStore.size() + " horses in cold store)");
     }
 
     // --------------------------------------------------------------------------
     /**
      * Save all updated horses to the database.
+     *
+     * Only horses that are new or have unsaved changes are passed to the
+     * implementation; the rest are already up to date in the database. If the
+     * write fails, the horses are marked dirty again, so that the journal,
+     * which still records their changes, is not truncated by {@link #close()}.
      */
     public synchronized void save() {
+        _journal.commit();
+        _coldStore.flush();
+        waitForPendingWrites();
+        returnFailedEvictions();
+        takeFailedWrites();
         long start = System.currentTimeMillis();
-        _impl.saveAll(_cache.values());
+        long startNanos = System.nanoTime();
+        ArrayList<SavedHorse> dirtyHorses = getDirtyHorses();
+        if (!dirtyHorses.isEmpty()) {
+            try {
+                _impl.saveAll(dirtyHorses);
+            } catch (IOException ex) {
+                // The implementation may have marked some horses clean.
+                for (SavedHorse savedHorse : dirtyHorses) {
+                    savedHorse.setDirty();
+                }
+                EasyRider.PLUGIN.getLogger().severe("Database save failed: " + ex.getMessage());
+            }
+        }
+        METRICS.recordTime("save.time", startNanos);
+        METRICS.record("save.horses", "horses", dirtyHorses.size());
+        METRICS.record("save.dirty", "%", getDirtyPercentage(dirtyHorses.size()));
 
         long millis = System.currentTimeMillis() - start;
-        EasyRider.PLUGIN.getLogger().info("Database save time: " + millis + " ms");
+        EasyRider.PLUGIN.getLogger().info("Database save time: " + millis + " ms (" +
+                                          dirtyHorses.size() + " of " + _cache.size() + " horses written)");
     }
 
     // --------------------------------------------------------------------------
     /**
      * Delete all removed horses from the database.
+     *
+     * If the deletion fails, the horses remain queued for removal, so that the
+     * journal, which records their removal, is not truncated by
+     * {@link #close()}.
      */
     public synchronized void purgeAllRemovedHorses() {
+        waitForPendingWrites();
+        takeFailedWrites();
+        if (_removedHorses.isEmpty()) {
+            return;
+        }
+
         long start = System.nanoTime();
-        _impl.delete(_removedHorses.values());
-        _removedHorses.clear();
+        int count = _removedHorses.size();
+        try {
+            _impl.delete(_removedHorses.values());
+            _removedHorses.clear();
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Database purge failed: " + ex.getMessage());
+        }
+        METRICS.recordTime("purge.time", start);
+        METRICS.record("purge.horses", "horses", count);
 
         double millis = 1e-6 * (System.nanoTime() - start);
         EasyRider.PLUGIN.getLogger().info("Database purge time: " + millis + " ms");
@@ -305,12 +730,189 @@ public class HorseDB {
 
     // --------------------------------------------------------------------------
     /**
-     * Migrate the database to the specified implementation.
+     * Append changes made since the last call to the journal, without blocking
+     * the calling thread.
+     *
+     * This method must be called in the main thread.
+     */
+    public synchronized void commitJournal() {
+        _journal.commit();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Write behind changes to the database without blocking the calling
+     * thread.
+     *
+     * This method must be called in the main thread. It copies the state of up
+     * to maxHorses new or dirty horses, marks the originals clean, and hands
+     * the copies, along with any horses removed since the last flush, to the
+     * I/O thread to be written. If all changes are written successfully, the
+     * journal is truncated afterwards.
+     *
+     * Dirty horses are taken in UUID order, starting after the last horse
+     * copied by the previous flush and wrapping around, so that when there are
+     * more than maxHorses dirty horses, every one is written within a bounded
+     * number of flushes, wherever it is in the cache.
+     *
+     * After a successful partial flush, a journal longer than
+     * {@link HorseJournal#COMPACTION_MIN_LENGTH} is compacted to the current
+     * state of the remaining dirty horses, so that it does not grow without
+     * bound while dirty horses outnumber maxHorses.
+     *
+     * If the write fails, the journal is not truncated, and the next flush
+     * marks the horses dirty again, unless they have changed since they were
+     * copied, and queues the removed horses to be deleted again.
+     *
+     * @param maxHorses the maximum number of horses to write in this flush;
+     *        any remaining dirty horses will be written by a subsequent flush.
+     */
+    public synchronized void flush(int maxHorses) {
+        // The journal must record all changes up to the copies taken below.
+        returnFailedEvictions();
+        _journal.commit();
+        _coldStore.flush();
+
+        long start = System.nanoTime();
+        final long failures = takeFailedWrites();
+        ArrayList<SavedHorse> dirtyHorses = getDirtyHorses();
+        dirtyHorses.sort((h1, h2) -> h1.getUuid().compareTo(h2.getUuid()));
+        int first = 0;
+        if (_flushCursor != null) {
+            while (first < dirtyHorses.size() && dirtyHorses.get(first).getUuid().compareTo(_flushCursor) <= 0) {
+                ++first;
+            }
+        }
+
+        int count = Math.min(maxHorses, dirtyHorses.size());
+        boolean complete = (count == dirtyHorses.size());
+        ArrayList<SavedHorse> copies = new ArrayList<SavedHorse>(count);
+        for (int i = 0; i < count; ++i) {
+            SavedHorse savedHorse = dirtyHorses.get((first + i) % dirtyHorses.size());
+            try {
+                copies.add((SavedHorse) savedHorse.clone());
+                savedHorse.setClean();
+                _flushCursor = savedHorse.getUuid();
+            } catch (CloneNotSupportedException ex) {
+                // Should never happen.
+            }
+        }
+
+        ArrayList<SavedHorse> removed = new ArrayList<SavedHorse>(_removedHorses.values());
+        _removedHorses.clear();
+        if (copies.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+
+        // The horses not copied above are still dirty.
+        byte[] compactedJournal = null;
+        if (!complete && _journal.getLength() > HorseJournal.COMPACTION_MIN_LENGTH) {
+            dirtyHorses.removeIf(h -> !h.isNew() && !h.isDirty());
+            compactedJournal = _journal.encodeCompacted(dirtyHorses);
+        }
+
+        METRICS.recordTime("flush.snapshot", start);
+        METRICS.record("flush.horses", "horses", copies.size());
+        METRICS.record("flush.dirty", "%", getDirtyPercentage(copies.size()));
+        if (EasyRider.CONFIG.DEBUG_SAVES) {
+            double millis = 1e-6 * (System.nanoTime() - start);
+            EasyRider.PLUGIN.getLogger().info("Database flush snapshot time: " + millis + " ms");
+        }
+
+        final IHorseDBImpl impl = _impl;
+        final boolean truncateJournal = complete;
+        final byte[] compacted = compactedJournal;
+        _ioExecutor.execute(() -> {
+            long writeStart = System.nanoTime();
+            try {
+                // Delete first, in case a removed horse has been re-added.
+                if (!removed.isEmpty()) {
+                    impl.delete(removed);
+                }
+                if (!copies.isEmpty()) {
+                    impl.saveAll(copies);
+                }
+
+                // Later journal records are queued after this task. Until the
+                // horses of a failed flush are dirty again, the journal holds
+                // the only record of their changes.
+                if (_writeFailures == failures) {
+                    if (truncateJournal) {
+                        _journal.truncate();
+                    } else if (compacted != null) {
+                        _journal.rewrite(compacted);
+                    }
+                }
+            } catch (Exception ex) {
+                _failedCopies.addAll(copies);
+                _failedRemovals.addAll(removed);
+                ++_writeFailures;
+                EasyRider.PLUGIN.getLogger().severe("Database flush failed: " + ex.getMessage());
+            }
+            METRICS.recordTime("flush.time", writeStart);
+
+            if (EasyRider.CONFIG.DEBUG_SAVES) {
+                double millis = 1e-6 * (System.nanoTime() - writeStart);
+                EasyRider.PLUGIN.getLogger().info("Database flush write time: " + millis + " ms (" +
+                                                  copies.size() + " horses written, " +
+                                                  removed.size() + " deleted)");
+            }
+        });
+    } // flush
+
+    // --------------------------------------------------------------------------
+    /**
+     * Wait for all pending writes to complete and stop the I/O thread.
+     *
+     * This should be called when the plugin is disabled, after the final
+     * {@link #save()} and {@link #purgeAllRemovedHorses()}. If the database is
+     * then up to date, the journal is truncated.
+     */
+    public synchronized void close() {
+        if (_migration != null) {
+            _migration.abandon();
+            _migration = null;
+        }
+
+        _ioExecutor.shutdown();
+        try {
+            if (!_ioExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                EasyRider.PLUGIN.getLogger().severe("Timed out waiting for database writes to complete.");
+                return;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        takeFailedWrites();
+        if (getDirtyHorses().isEmpty() && _removedHorses.isEmpty()) {
+            _journal.truncate();
+        }
+        _journal.close();
+        _impl.close();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Start migrating the database to the specified implementation in the
+     * background.
+     *
+     * The database continues to use the current implementation until all
+     * horses have been copied to the new one. Progress is reported to the
+     * sender.
      *
      * @param sender the command sender.
      * @param string the database implementation type identifier.
+     * @see HorseDBMigration
      */
     public synchronized void migrate(CommandSender sender, String implType) {
+        if (_migration != null) {
+            sender.sendMessage(ChatColor.RED + "The database is already being migrated to: " +
+                               _migration.getNewImpl().getType());
+            return;
+        }
+
         String oldImplType = _impl.getType();
         if (oldImplType.equals(implType)) {
             sender.sendMessage(ChatColor.RED + "The database implementation is already: " + implType);
@@ -323,41 +925,80 @@ public class HorseDB {
             return;
         }
 
-        // Write current implementation to disk.
-        // Equivalent to save() and purgeAllRemovedHorses():
-        _impl.saveAll(_cache.values());
-        _impl.delete(_removedHorses.values());
-        _removedHorses.clear();
-
-        // Clear out any existing contents of the new database.
-        newImpl.delete(newImpl.loadAll());
+        _migration = new HorseDBMigration(this, sender, newImpl);
+        _migration.start();
+    } // migrate
 
-        // Mark all horses in the cache as new (to be inserted), then save.
-        for (SavedHorse savedHorse : _cache.values()) {
-            savedHorse.setNew();
+    // --------------------------------------------------------------------------
+    /**
+     * Complete a migration once all copied horses have been written to the new
+     * implementation.
+     *
+     * This method is called by the migration in the main thread. It writes the
+     * horses changed since they were copied, then switches to the new
+     * implementation. Writes already queued for the old implementation are
+     * completed first. If the changes cannot be written, the migration is
+     * abandoned.
+     *
+     * @param migration the migration.
+     */
+    synchronized void finishMigration(HorseDBMigration migration) {
+        // The new database will contain everything in the journal.
+        _journal.commit();
+        waitForPendingWrites();
+        try {
+            migration.writeChanges();
+        } catch (IOException ex) {
+            migration.fail(ex.getMessage());
+            return;
         }
-        newImpl.saveAll(_cache.values());
 
         // Update implementation reference and config setting.
-        _impl = newImpl;
-        EasyRider.CONFIG.DATABASE_IMPLEMENTATION = implType;
+        String oldImplType = _impl.getType();
+        _impl.close();
+        _impl = migration.getNewImpl();
+        _migration = null;
+        _ioExecutor.execute(_journal::truncate);
+        EasyRider.CONFIG.DATABASE_IMPLEMENTATION = _impl.getType();
         EasyRider.CONFIG.save();
 
-        sender.sendMessage(ChatColor.GOLD + "Database migrated from " + oldImplType + " to " + implType + ".");
-    } // migrate
+        migration._sender.sendMessage(ChatColor.GOLD + "Database migrated from " + oldImplType + " to " + _impl.getType() + ".");
+    }
 
     // ------------------------------------------------------------------------
     /**
      * Create a database implementation of the specified type.
      * 
-     * @param implType identifies the database implementation; one of "sqlite",
-     *        "yaml" or "sqlite+yaml".
+     * A type of the form "<primary>+<secondary>" creates a
+     * {@link HorseDBImplWithMirror} that writes to both implementations.
+     * 
+     * @param implType identifies the database implementation; one of
+     *        "sqlite", "binary", "sharded-yaml" or "yaml", or two of those
+     *        joined by "+", e.g. "sqlite+yaml".
      * @return the implementation, or null if the type is invalid.
      */
-    protected synchronized IHorseDBImpl makeHorseDBImpl(String implType) {
+    protected static IHorseDBImpl makeHorseDBImpl(String implType) {
+        int plus = implType.indexOf('+');
+        if (plus >= 0) {
+            String primaryType = implType.substring(0, plus);
+            String secondaryType = implType.substring(plus + 1);
+            if (primaryType.equals(secondaryType) || secondaryType.indexOf('+') >= 0) {
+                return null;
+            }
+            IHorseDBImpl primary = makeHorseDBImpl(primaryType);
+            IHorseDBImpl secondary = makeHorseDBImpl(secondaryType);
+            return (primary != null && secondary != null) ? new HorseDBImplWithMirror(primary, secondary) : null;
+        }
+
         switch (implType) {
         case "yaml":
             return new HorseDBImplWithYAML();
+        case "sqlite":
+            return new HorseDBImplWithSQLite();
+        case "binary":
+            return new HorseDBImplWithBinary();
+        case "sharded-yaml":
+            return new HorseDBImplWithShardedYAML();
         default:
             return null;
         }
@@ -365,67 +1006,212 @@ public class HorseDB {
 
     // ------------------------------------------------------------------------
     /**
-     * Return a non-null reference to the mutable set of SavedHorses belonging
-     * to the player with the specified UUID.
-     * 
-     * We can't enforce ordering based on tamed time stamp here because that
-     * mutates and would necessitate periodically reindexing the tree.
-     * 
-     * @param ownerUuid the UUID of the owning player.
-     * @return the corresponding set of owned SavedHorses, which may be empty
-     *         but will never be null.
+     * Return the specified number of dirty horses as a percentage of all
+     * cached horses, for {@link #METRICS}.
+     *
+     * @param dirtyCount the number of dirty horses.
+     * @return the percentage.
      */
-    protected TreeSet<SavedHorse> getOwnedHorsesSet(UUID ownerUuid) {
-        TreeSet<SavedHorse> horses = _ownedHorses.get(ownerUuid);
-        if (horses == null) {
-            horses = new TreeSet<SavedHorse>((h1, h2) -> h1.getUuid().compareTo(h2.getUuid()));
-            _ownedHorses.put(ownerUuid, horses);
-        }
-        return horses;
+    protected double getDirtyPercentage(int dirtyCount) {
+        return _cache.isEmpty() ? 0 : 100.0 * dirtyCount / _cache.size();
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Add the horse to the set of horses attributed to the owner.
+     * Block until all writes queued by {@link #flush(int)} have completed.
      *
-     * @param ownerUuid the owning player's UUID.
-     * @param savedHorse the database horse.
+     * After this method returns, the calling (main) thread can safely access
+     * the database implementation directly, since flushes are only queued from
+     * the main thread.
      */
-    protected void addOwnedHorse(UUID ownerUuid, SavedHorse savedHorse) {
-        if (ownerUuid == null) {
+    protected void waitForPendingWrites() {
+        if (_ioExecutor.isShutdown()) {
             return;
         }
 
-        getOwnedHorsesSet(ownerUuid).add(savedHorse);
+        try {
+            _ioExecutor.submit(() -> {
+            }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            // Not thrown by an empty task.
+        }
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Remove the specified horse from the set of horses recorded as owned by
-     * its current owner.
+     * Mark the horses of failed flushes dirty again, and queue their removed
+     * horses to be deleted again.
      *
-     * @param ownerUuid the owning player's UUID.
-     * @param savedHorse the database horse.
+     * A copied horse is only marked dirty if it is still cached and has not
+     * changed since it was copied; otherwise, its later changes are written
+     * by a later flush. A removed horse is only queued again if it has not
+     * been returned to the cache.
+     *
+     * This method must be called in the main thread.
+     *
+     * @return the number of failed flushes whose horses have been taken;
+     *         a flush may only truncate the journal if no more have failed by
+     *         the time it is written.
      */
-    protected void removeOwnedHorse(UUID ownerUuid, SavedHorse savedHorse) {
-        if (ownerUuid == null) {
-            return;
+    protected long takeFailedWrites() {
+        // Read the count first: the horses of the counted failures are queued
+        // before the count is incremented.
+        long failures = _writeFailures;
+        for (SavedHorse copy = _failedCopies.poll(); copy != null; copy = _failedCopies.poll()) {
+            SavedHorse savedHorse = _cache.get(copy.getUuid());
+            if (savedHorse != null && savedHorse.getModCount() == copy.getModCount()) {
+                savedHorse.setDirty();
+            }
         }
+        for (SavedHorse removed = _failedRemovals.poll(); removed != null; removed = _failedRemovals.poll()) {
+            if (!_cache.containsKey(removed.getUuid())) {
+                _removedHorses.putIfAbsent(removed.getUuid(), removed);
+            }
+        }
+        return failures;
+    }
 
-        getOwnedHorsesSet(ownerUuid).remove(savedHorse);
-        savedHorse.clearPermittedPlayers();
+    // ------------------------------------------------------------------------
+    /**
+     * Return a list of all cached horses that are new or have unsaved changes.
+     *
+     * @return the horses that need to be written to the database.
+     */
+    protected ArrayList<SavedHorse> getDirtyHorses() {
+        ArrayList<SavedHorse> dirtyHorses = new ArrayList<SavedHorse>();
+        for (SavedHorse savedHorse : _cache.values()) {
+            if (savedHorse.isNew() || savedHorse.isDirty()) {
+                dirtyHorses.add(savedHorse);
+            }
+        }
+        return dirtyHorses;
     }
 
     // ------------------------------------------------------------------------
+    /**
+     * Add a horse entering the cache to the indexes of cached horses.
+     *
+     * The owner, name and chunk indexes then track changes to the horse, and
+     * its inventory is shared through the item pool.
+     *
+     * @param savedHorse the database horse.
+     */
+    protected void addToIndexes(SavedHorse savedHorse) {
+        savedHorse.acquireInventory();
+        _uuidIndex.add(savedHorse.getUuid());
+        _ownerIndex.add(savedHorse);
+        _nameIndex.add(savedHorse);
+        _chunkIndex.add(savedHorse);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a horse leaving the cache from the indexes of cached horses, and
+     * release its references in the item pool.
+     *
+     * @param savedHorse the database horse.
+     */
+    protected void removeFromIndexes(SavedHorse savedHorse) {
+        _uuidIndex.remove(savedHorse.getUuid());
+        _ownerIndex.remove(savedHorse);
+        _nameIndex.remove(savedHorse);
+        _chunkIndex.remove(savedHorse);
+        savedHorse.releaseInventory();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Performance metrics of the database, shown by /easyrider stats db.
+     */
+    public static final DBMetrics METRICS = new DBMetrics();
+
     /**
      * Database implementation.
      */
     protected IHorseDBImpl _impl;
 
+    /**
+     * Single thread that performs all database writes queued by
+     * {@link #flush(int)}, in order.
+     */
+    protected ExecutorService _ioExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "EasyRider Database"));
+
+    /**
+     * The UUID of the last horse copied by {@link #flush(int)}, after which the
+     * next flush starts; null before the first flush.
+     */
+    protected UUID _flushCursor;
+
+    /**
+     * Copies of horses whose write by {@link #flush(int)} failed in the I/O
+     * thread, which must be marked dirty again in the main thread.
+     */
+    protected ConcurrentLinkedQueue<SavedHorse> _failedCopies = new ConcurrentLinkedQueue<SavedHorse>();
+
+    /**
+     * Removed horses whose deletion by {@link #flush(int)} failed in the I/O
+     * thread, which must be queued for removal again in the main thread.
+     */
+    protected ConcurrentLinkedQueue<SavedHorse> _failedRemovals = new ConcurrentLinkedQueue<SavedHorse>();
+
+    /**
+     * The number of writes queued by {@link #flush(int)} that have failed;
+     * only incremented in the I/O thread.
+     */
+    protected volatile long _writeFailures;
+
+    /**
+     * Name of the journal file in the plugin's data folder.
+     */
+    protected static final String JOURNAL_FILE = "horses.journal";
+
+    /**
+     * Journal of changes not yet written to the database.
+     */
+    protected HorseJournal _journal;
+
+    /**
+     * The most recently published snapshot, or null if none has been
+     * published.
+     */
+    protected volatile HorseSnapshot _snapshot;
+
+    /**
+     * Map from each cached horse to its frozen copy in the most recently
+     * published snapshot.
+     */
+    protected IdentityHashMap<SavedHorse, SavedHorse> _snapshotCopies = new IdentityHashMap<SavedHorse, SavedHorse>();
+
+    /**
+     * The version of the cold store when the snapshot was last published.
+     */
+    protected long _snapshotColdVersion;
+
+    /**
+     * Name of the cold store directory in the plugin's data folder.
+     */
+    protected static final String COLD_DIR = "cold";
+
+    /**
+     * Store of horses that have not been observed for a long time.
+     */
+    protected HorseColdStore _coldStore;
+
+    /**
+     * The migration to a new database implementation in progress, or null if
+     * not migrating.
+     */
+    protected HorseDBMigration _migration;
+
     /**
      * Known horses.
+     *
+     * Horses are added and removed with the HorseDB locked, and can be looked
+     * up in any thread without it.
      */
-    protected HashMap<UUID, SavedHorse> _cache = new HashMap<UUID, SavedHorse>();
+    protected ConcurrentHashMap<UUID, SavedHorse> _cache = new ConcurrentHashMap<UUID, SavedHorse>();
 
     /**
      * Horses that must be removed from the database.
@@ -433,12 +1219,23 @@ public class HorseDB {
     protected HashMap<UUID, SavedHorse> _removedHorses = new HashMap<UUID, SavedHorse>();
 
     /**
-     * Map from owner UUID to the set of horses owned by that player.
-     *
-     * Each set of horses is a TreeSet<> that orders the entries in ascending
-     * order by AbstractHorse Entity UUID. The set may be transiently incorrect
-     * when ownership changes. Extra horses will be removed from the set when
-     * returned by {#link getOwnedHorses()}.
+     * Index of the cached horses by owner, in the order returned by
+     * {@link #getOwnedHorses(UUID)}.
+     */
+    protected OwnerIndex _ownerIndex = new OwnerIndex();
+
+    /**
+     * Index of the UUIDs of the cached horses by prefix.
+     */
+    protected UuidPrefixIndex _uuidIndex = new UuidPrefixIndex();
+
+    /**
+     * Index of the cached horses by display name.
+     */
+    protected NameIndex _nameIndex = new NameIndex();
+
+    /**
+     * Index of the cached horses by the chunk of their most recent location.
      */
-    protected HashMap<UUID, TreeSet<SavedHorse>> _ownedHorses = new HashMap<UUID, TreeSet<SavedHorse>>();
+    protected ChunkIndex _chunkIndex = new ChunkIndex();
 } // class HorseDB
\ No newline at end of file
@@ -0,0 +1,518 @@
+package nu.nerd.easyrider.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import nu.nerd.easyrider.EasyRider;
+
+// --------------------------------------------------------------------------
+/**
+ * Storage of all horses in a binary snapshot file that is memory-mapped to be
+ * loaded.
+ *
+ * The file consists of a header, a region of fixed-length records (one per
+ * horse) holding all primitive attributes, and a region of variable-length
+ * entries (strings, permitted players and inventories) referenced from the
+ * records by offset. Identical variable-length entries, such as world names
+ * and appearances, are stored once.
+ *
+ * The file is rewritten in full by every {@link #saveAll(Collection)} and
+ * {@link #delete(Collection)}. The records of horses that are neither saved
+ * nor deleted are rebuilt from the existing file, so no copy of the saved
+ * state of the horses is kept in memory.
+ */
+public class HorseDBImplWithBinary extends HorseDBImplWithFile {
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#getType()
+     */
+    @Override
+    public String getType() {
+        return "binary";
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#isIncremental()
+     */
+    @Override
+    public boolean isIncremental() {
+        return false;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.HorseDBImplWithFile#getDBFile()
+     */
+    @Override
+    public Path getDBFile() {
+        return new File(EasyRider.PLUGIN.getDataFolder(), "horses.bin").toPath();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#loadAll()
+     */
+    @Override
+    public Collection<SavedHorse> loadAll() {
+        ArrayList<SavedHorse> result = new ArrayList<SavedHorse>();
+        _count = 0;
+        if (!Files.exists(getDBFile())) {
+            return result;
+        }
+
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(getDBFile(), StandardOpenOption.READ)) {
+            MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (file.getInt() != MAGIC || file.getInt() != VERSION) {
+                EasyRider.PLUGIN.getLogger().severe("Not a horse database: " + getDBFile());
+                return result;
+            }
+
+            int count = file.getInt();
+            _count = count;
+            int varRegionOffset = file.getInt();
+            ByteBuffer varRegion = ((ByteBuffer) file.duplicate().position(varRegionOffset)).slice();
+            HashMap<Integer, String> strings = new HashMap<Integer, String>();
+            for (int i = 0; i < count; ++i) {
+                file.position(HEADER_LENGTH + i * RECORD_LENGTH);
+                SavedHorse savedHorse = new SavedHorse();
+                try {
+                    loadHorse(savedHorse, file, varRegion, strings);
+                    savedHorse.setClean();
+                    result.add(savedHorse);
+                } catch (Exception ex) {
+                    // Should not happen. Mitigate the damage.
+                    EasyRider.PLUGIN.getLogger().severe("Failed to load horse " + savedHorse.getUuid() + ": " + ex.getMessage());
+                }
+            }
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to read binary database: " + ex.getMessage());
+        }
+        HorseDB.METRICS.recordTime(getType() + ".parse", start);
+        return result;
+    } // loadAll
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#saveAll(java.util.Collection)
+     */
+    @Override
+    public void saveAll(Collection<SavedHorse> collection) throws IOException {
+        writeToDisk(collection, Collections.emptyList());
+        for (SavedHorse savedHorse : collection) {
+            savedHorse.setClean();
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#delete(java.util.Collection)
+     *
+     *      The whole file is rewritten, so nothing is written when there is
+     *      nothing to delete.
+     */
+    @Override
+    public void delete(Collection<SavedHorse> collection) throws IOException {
+        if (collection.isEmpty()) {
+            return;
+        }
+        writeToDisk(Collections.emptyList(), collection);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#close()
+     *
+     *      The file is not held open, so there is nothing to do.
+     */
+    @Override
+    public void close() {
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Rewrite the database file atomically with the specified horses saved or
+     * deleted.
+     *
+     * The records of all other horses are read from the existing file, one
+     * horse at a time, and written again. The existing file is read into
+     * memory rather than mapped, since a live mapping prevents the new file
+     * from replacing it on some platforms, notably Windows.
+     *
+     * @param saved the horses to save.
+     * @param deleted the horses to delete.
+     * @throws IOException if the file could not be written, or if the
+     *         existing file could not be read.
+     */
+    protected void writeToDisk(Collection<SavedHorse> saved, Collection<SavedHorse> deleted) throws IOException {
+        long serialiseStart = System.nanoTime();
+        HashSet<UUID> replaced = new HashSet<UUID>();
+        for (SavedHorse savedHorse : saved) {
+            replaced.add(savedHorse.getUuid());
+        }
+        for (SavedHorse savedHorse : deleted) {
+            replaced.add(savedHorse.getUuid());
+        }
+
+        ByteBuffer oldFile = readDBFile();
+        int oldCount = (oldFile != null) ? oldFile.getInt(8) : 0;
+        ByteBuffer records = ByteBuffer.allocate(HEADER_LENGTH + (oldCount + saved.size()) * RECORD_LENGTH);
+        ByteArrayOutputStream varBytes = new ByteArrayOutputStream();
+        DataOutputStream varRegion = new DataOutputStream(varBytes);
+        HashMap<ByteBuffer, Integer> varOffsets = new HashMap<ByteBuffer, Integer>();
+
+        records.position(HEADER_LENGTH);
+        if (oldFile != null) {
+            ByteBuffer oldVarRegion = ((ByteBuffer) oldFile.duplicate().position(oldFile.getInt(12))).slice();
+            HashMap<Integer, String> strings = new HashMap<Integer, String>();
+            for (int i = 0; i < oldCount; ++i) {
+                int recordOffset = HEADER_LENGTH + i * RECORD_LENGTH;
+                UUID uuid = new UUID(oldFile.getLong(recordOffset), oldFile.getLong(recordOffset + 8));
+                if (!replaced.contains(uuid)) {
+                    oldFile.position(recordOffset);
+                    SavedHorse savedHorse = new SavedHorse();
+                    try {
+                        loadHorse(savedHorse, oldFile, oldVarRegion, strings);
+                        appendHorse(savedHorse, records, varRegion, varOffsets);
+                    } catch (Exception ex) {
+                        // Should not happen. Mitigate the damage by omitting the horse.
+                        EasyRider.PLUGIN.getLogger().severe("Failed to copy horse " + uuid + ": " + ex.getMessage());
+                    }
+                }
+            }
+        }
+        for (SavedHorse savedHorse : saved) {
+            appendHorse(savedHorse, records, varRegion, varOffsets);
+        }
+
+        int count = (records.position() - HEADER_LENGTH) / RECORD_LENGTH;
+        records.putInt(0, MAGIC);
+        records.putInt(4, VERSION);
+        records.putInt(8, count);
+        records.putInt(12, HEADER_LENGTH + count * RECORD_LENGTH);
+        records.limit(HEADER_LENGTH + count * RECORD_LENGTH);
+        records.position(0);
+        HorseDB.METRICS.recordTime(getType() + ".serialise", serialiseStart);
+
+        Path dbFile = getDBFile();
+        try {
+            writeFile(dbFile, tempFile -> {
+                try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                                                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer var = ByteBuffer.wrap(varBytes.toByteArray());
+                    while (records.hasRemaining() || var.hasRemaining()) {
+                        channel.write(new ByteBuffer[] { records, var });
+                    }
+                }
+            });
+        } catch (IOException ex) {
+            throw new IOException("Unable to write binary database: " + dbFile.toString(), ex);
+        }
+        _count = count;
+    } // writeToDisk
+
+    // --------------------------------------------------------------------------
+    /**
+     * Read the existing database file into memory.
+     *
+     * @return the contents of the file, or null if there is no file or it is
+     *         not a horse database.
+     * @throws IOException if the file could not be read, or if it is missing
+     *         or not a horse database but horses were last loaded or written
+     *         to it.
+     */
+    protected ByteBuffer readDBFile() throws IOException {
+        Path dbFile = getDBFile();
+        if (Files.exists(dbFile)) {
+            try {
+                ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(dbFile));
+                if (file.capacity() >= HEADER_LENGTH && file.getInt(0) == MAGIC && file.getInt(4) == VERSION) {
+                    return file;
+                }
+            } catch (IOException ex) {
+                throw new IOException("Unable to read binary database: " + dbFile.toString(), ex);
+            }
+        }
+
+        if (_count > 0) {
+            throw new IOException("Binary database " + dbFile.toString() + " no longer contains " + _count + " horses");
+        }
+        return null;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Append a horse to the records being written, omitting it if it cannot
+     * be saved.
+     *
+     * @param savedHorse the horse.
+     * @param records the fixed-length records.
+     * @param varRegion the region of variable-length entries.
+     * @param varOffsets map from entries already written to their offsets.
+     */
+    protected void appendHorse(SavedHorse savedHorse, ByteBuffer records, DataOutputStream varRegion,
+                               HashMap<ByteBuffer, Integer> varOffsets) {
+        int start = records.position();
+        try {
+            saveHorse(savedHorse, records, varRegion, varOffsets);
+        } catch (Exception ex) {
+            // Should not happen. Mitigate the damage by omitting the horse.
+            EasyRider.PLUGIN.getLogger().severe("Failed to save horse " + savedHorse.getUuid() + ": " + ex.getMessage());
+            records.position(start);
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Load a horse from the fixed-length record at the current position of the
+     * file.
+     *
+     * @param savedHorse the horse to load.
+     * @param file the file, positioned at the start of the record.
+     * @param varRegion the region of variable-length entries.
+     * @param strings cache of strings already decoded, by offset.
+     */
+    protected void loadHorse(SavedHorse savedHorse, ByteBuffer file, ByteBuffer varRegion,
+                             HashMap<Integer, String> strings) {
+        savedHorse.setUuid(new UUID(file.getLong(), file.getLong()));
+        savedHorse.setOwnerUuid(readUuid(file));
+        savedHorse.setLastTamed(file.getLong());
+        savedHorse.setName(readString(file.getInt(), varRegion, strings));
+        savedHorse.setDisplayName(readString(file.getInt(), varRegion, strings));
+        savedHorse.setAppearance(readString(file.getInt(), varRegion, strings));
+
+        String worldName = readString(file.getInt(), varRegion, strings);
+        double x = file.getDouble();
+        double y = file.getDouble();
+        double z = file.getDouble();
+        if (worldName != null) {
+            savedHorse.setLocation(worldName, x, y, z);
+        }
+
+        savedHorse.setEquipment(file.getInt());
+        savedHorse.setDistanceTravelled(file.getDouble());
+        savedHorse.setDistanceJumped(file.getDouble());
+        savedHorse.setNuggetsEaten(file.getInt());
+        savedHorse.setSpeedLevel(file.getInt());
+        savedHorse.setJumpLevel(file.getInt());
+        savedHorse.setHealthLevel(file.getInt());
+        savedHorse.setHydration(file.getDouble());
+        savedHorse.setLastAccessed(file.getLong());
+        savedHorse.setLastObserved(file.getLong());
+        savedHorse.setOutdatedAttributes(file.get() != 0);
+
+        int permittedOffset = file.getInt();
+        if (permittedOffset >= 0) {
+            varRegion.position(permittedOffset + 4);
+            for (int count = varRegion.getInt(); count > 0; --count) {
+                savedHorse.addPermittedPlayerUuid(new UUID(varRegion.getLong(), varRegion.getLong()));
+            }
+        }
+
+        // The inventory is deserialised on first access.
+        int inventoryOffset = file.getInt();
+        if (inventoryOffset >= 0) {
+            savedHorse.setSerialisedInventory(readBytes(inventoryOffset, varRegion));
+        }
+    } // loadHorse
+
+    // --------------------------------------------------------------------------
+    /**
+     * Save a horse as a fixed-length record at the current position of the
+     * records buffer, adding its variable-length attributes to the
+     * variable-length region.
+     *
+     * @param savedHorse the horse.
+     * @param records the fixed-length records.
+     * @param varRegion the region of variable-length entries.
+     * @param varOffsets map from entries already written to their offsets.
+     * @throws IOException if the variable-length region cannot be written.
+     */
+    protected void saveHorse(SavedHorse savedHorse, ByteBuffer records, DataOutputStream varRegion,
+                             HashMap<ByteBuffer, Integer> varOffsets) throws IOException {
+        records.putLong(savedHorse.getUuid().getMostSignificantBits());
+        records.putLong(savedHorse.getUuid().getLeastSignificantBits());
+        writeUuid(records, savedHorse.getOwnerUuid());
+        records.putLong(savedHorse.getLastTamed());
+        records.putInt(writeString(savedHorse.getName(), varRegion, varOffsets));
+        records.putInt(writeString(savedHorse.getDisplayName(), varRegion, varOffsets));
+        records.putInt(writeString(savedHorse.getAppearance(), varRegion, varOffsets));
+
+        boolean hasLocation = savedHorse.hasLocation();
+        records.putInt(hasLocation ? writeString(savedHorse.getWorldName(), varRegion, varOffsets) : -1);
+        records.putDouble(hasLocation ? savedHorse.getX() : 0);
+        records.putDouble(hasLocation ? savedHorse.getY() : 0);
+        records.putDouble(hasLocation ? savedHorse.getZ() : 0);
+
+        records.putInt(savedHorse.getEquipment());
+        records.putDouble(savedHorse.getDistanceTravelled());
+        records.putDouble(savedHorse.getDistanceJumped());
+        records.putInt(savedHorse.getNuggetsEaten());
+        records.putInt(savedHorse.getSpeedLevel());
+        records.putInt(savedHorse.getJumpLevel());
+        records.putInt(savedHorse.getHealthLevel());
+        records.putDouble(savedHorse.getHydration());
+        records.putLong(savedHorse.getLastAccessed());
+        records.putLong(savedHorse.getLastObserved());
+        records.put((byte) (savedHorse.hasOutdatedAttributes() ? 1 : 0));
+
+        List<UUID> permittedPlayers = savedHorse.getPermittedPlayerUuids();
+        if (permittedPlayers.isEmpty()) {
+            records.putInt(-1);
+        } else {
+            ByteBuffer players = ByteBuffer.allocate(4 + 16 * permittedPlayers.size());
+            players.putInt(permittedPlayers.size());
+            for (UUID playerUuid : permittedPlayers) {
+                players.putLong(playerUuid.getMostSignificantBits());
+                players.putLong(playerUuid.getLeastSignificantBits());
+            }
+            records.putInt(writeBytes(players.array(), varRegion, varOffsets));
+        }
+
+        records.putInt(writeBytes(savedHorse.getSerialisedInventory(), varRegion, varOffsets));
+    } // saveHorse
+
+    // --------------------------------------------------------------------------
+    /**
+     * Write a possibly null UUID as two longs, with null represented by zeroes.
+     *
+     * @param buffer the buffer.
+     * @param uuid the UUID, or null.
+     */
+    protected static void writeUuid(ByteBuffer buffer, UUID uuid) {
+        buffer.putLong((uuid != null) ? uuid.getMostSignificantBits() : 0);
+        buffer.putLong((uuid != null) ? uuid.getLeastSignificantBits() : 0);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Read a possibly null UUID written by
+     * {@link #writeUuid(ByteBuffer, UUID)}.
+     *
+     * @param buffer the buffer.
+     * @return the UUID, or null.
+     */
+    protected static UUID readUuid(ByteBuffer buffer) {
+        long most = buffer.getLong();
+        long least = buffer.getLong();
+        return (most == 0 && least == 0) ? null : new UUID(most, least);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Add a possibly null string to the variable-length region.
+     *
+     * @param string the string, or null.
+     * @param varRegion the region of variable-length entries.
+     * @param varOffsets map from entries already written to their offsets.
+     * @return the offset of the entry, or -1 if the string is null.
+     * @throws IOException if the variable-length region cannot be written.
+     */
+    protected static int writeString(String string, DataOutputStream varRegion,
+                                     HashMap<ByteBuffer, Integer> varOffsets) throws IOException {
+        return (string != null) ? writeBytes(string.getBytes(StandardCharsets.UTF_8), varRegion, varOffsets) : -1;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Read a possibly null string from the variable-length region.
+     *
+     * @param offset the offset of the entry, or -1 if null.
+     * @param varRegion the region of variable-length entries.
+     * @param strings cache of strings already decoded, by offset.
+     * @return the string, or null.
+     */
+    protected static String readString(int offset, ByteBuffer varRegion, HashMap<Integer, String> strings) {
+        if (offset < 0) {
+            return null;
+        }
+        return strings.computeIfAbsent(offset, o -> new String(readBytes(o, varRegion), StandardCharsets.UTF_8));
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Add a length-prefixed entry to the variable-length region, unless an
+     * identical entry has already been written.
+     *
+     * @param bytes the contents of the entry.
+     * @param varRegion the region of variable-length entries.
+     * @param varOffsets map from entries already written to their offsets.
+     * @return the offset of the entry.
+     * @throws IOException if the variable-length region cannot be written.
+     */
+    protected static int writeBytes(byte[] bytes, DataOutputStream varRegion,
+                                    HashMap<ByteBuffer, Integer> varOffsets) throws IOException {
+        ByteBuffer key = ByteBuffer.wrap(bytes);
+        Integer offset = varOffsets.get(key);
+        if (offset == null) {
+            offset = varRegion.size();
+            varRegion.writeInt(bytes.length);
+            varRegion.write(bytes);
+            varOffsets.put(key, offset);
+        }
+        return offset;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Read the contents of a length-prefixed entry in the variable-length
+     * region.
+     *
+     * @param offset the offset of the entry.
+     * @param varRegion the region of variable-length entries.
+     * @return the contents of the entry.
+     */
+    protected static byte[] readBytes(int offset, ByteBuffer varRegion) {
+        varRegion.position(offset);
+        byte[] bytes = new byte[varRegion.getInt()];
+        varRegion.get(bytes);
+        return bytes;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Magic number at the start of the file: "ERHB".
+     */
+    protected static final int MAGIC = 0x45524842;
+
+    /**
+     * Version of the file format.
+     */
+    protected static final int VERSION = 1;
+
+    /**
+     * Length of the header: magic, version, record count and offset of the
+     * variable-length region.
+     */
+    protected static final int HEADER_LENGTH = 16;
+
+    /**
+     * Length of each fixed-length record.
+     */
+    protected static final int RECORD_LENGTH = 16 + 16 + 8 + 4 * 3 + 4 + 8 * 3 +
+                                               4 + 8 * 2 + 4 * 4 + 8 * 3 + 1 + 4 * 2;
+
+    /**
+     * The number of horses in the database file when it was last loaded or
+     * written, used to detect the loss of the file between writes.
+     */
+    protected int _count;
+
+} // class HorseDBImplWithBinary
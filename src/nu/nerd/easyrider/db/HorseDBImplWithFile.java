@@ -1,13 +1,22 @@
 package nu.nerd.easyrider.db;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
@@ -15,32 +24,81 @@ import java.util.TreeSet;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 import nu.nerd.easyrider.EasyRider;
+import nu.nerd.easyrider.IFileWriter;
+import nu.nerd.easyrider.Util;
 
 // ----------------------------------------------------------------------------
 /**
- * Abstract base of {@link IHorseDBImpl} implementations that store data in a
- * file that can be easily backed up.
+ * Abstract base of {@link IHorseDBImpl} implementations that store data in
+ * one or more files that can be easily backed up.
  */
 public abstract class HorseDBImplWithFile implements IHorseDBImpl {
     // --------------------------------------------------------------------------
     /**
-     * Return the path to the file containing the database.
+     * Return the path to the file or directory containing the database.
      *
-     * @return the path to the file containing the database.
+     * @return the path to the file or directory containing the database.
      */
     public abstract Path getDBFile();
 
+    // --------------------------------------------------------------------------
+    /**
+     * Return the paths to all files that make up the database.
+     *
+     * By default, the database is the single file returned by
+     * {@link #getDBFile()}.
+     *
+     * @return the paths to all files that make up the database.
+     */
+    public List<Path> getDBFiles() {
+        return Collections.singletonList(getDBFile());
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Write a database file atomically with
+     * {@link Util#writeAtomically(Path, IFileWriter)}, recording the time
+     * taken to write the contents ("write"), the time taken to sync and
+     * rename the file ("fsync") and the size of the file ("bytes") in
+     * {@link HorseDB#METRICS}.
+     *
+     * @param file the path to the database file.
+     * @param writer writes the contents to the temporary file.
+     * @throws IOException if the file cannot be written.
+     */
+    protected void writeFile(Path file, IFileWriter writer) throws IOException {
+        long[] writeNanos = new long[1];
+        long start = System.nanoTime();
+        Util.writeAtomically(file, tempFile -> {
+            long writeStart = System.nanoTime();
+            writer.write(tempFile);
+            writeNanos[0] = System.nanoTime() - writeStart;
+        });
+        long totalNanos = System.nanoTime() - start;
+
+        HorseDB.METRICS.record(getType() + ".write", "ms", 1e-6 * writeNanos[0]);
+        HorseDB.METRICS.record(getType() + ".fsync", "ms", 1e-6 * (totalNanos - writeNanos[0]));
+        HorseDB.METRICS.record(getType() + ".bytes", "bytes", Files.size(file));
+    }
+
     // --------------------------------------------------------------------------
     /**
      * @see nu.nerd.easyrider.db.IHorseDBImpl#backup()
      *
-     *      Make a backup of the database file if a backup has not been made in
+     *      Make a backup of each database file if a backup has not been made in
      *      the last hour.
      *
-     *      The backup file will be called
-     *      "backups/<database-file>.yyyy-MM-dd-HH".
+     *      Backups are content-addressed: the gzip compressed contents of each
+     *      database file are stored once in "backups/objects/<sha-256>.gz",
+     *      and the backup file "backups/<database-file>.yyyy-MM-dd-HH.gz" is a
+     *      hard link to that object. Database files that are unchanged since
+     *      any previous backup therefore take no additional space and are not
+     *      compressed again.
+     *
+     *      This method is called in the database I/O thread.
      */
     @Override
     public void backup() {
@@ -54,45 +112,108 @@ public abstract class HorseDBImplWithFile implements IHorseDBImpl {
         }
 
         Path backupsDir = null;
+        Path objectsDir = null;
         try {
             backupsDir = dataDir.resolve("backups");
+            objectsDir = backupsDir.resolve("objects");
             Set<PosixFilePermission> perms = PosixFilePermissions.fromString("rwxrwxr-x");
-            Files.createDirectories(backupsDir, PosixFilePermissions.asFileAttribute(perms));
+            Files.createDirectories(objectsDir, PosixFilePermissions.asFileAttribute(perms));
         } catch (Exception ex) {
             logger.severe("Could not create database backups directory: " +
                           ex.getMessage());
             return;
         }
 
-        Path databaseFile = getDBFile();
-        String baseName = databaseFile.getFileName().toString();
-        Calendar date = Calendar.getInstance();
-        try {
-            String formattedDate = new SimpleDateFormat(".yyyy-MM-dd-HH").format(date.getTime());
-            Path backupFile = backupsDir.resolve(baseName + formattedDate);
-            if (!Files.exists(backupFile)) {
-                Files.copy(databaseFile, backupFile, StandardCopyOption.COPY_ATTRIBUTES);
+        // Group backup files by database file name, then into one set per day.
+        // Uncompressed backups made by earlier versions are culled too.
+        HashMap<String, TreeMap<String, TreeSet<File>>> backupFilesByName = new HashMap<String, TreeMap<String, TreeSet<File>>>();
+        Pattern p = Pattern.compile("(.+)(\\.\\d{4}-\\d{2}-\\d{2})-\\d{2}(\\.gz)?");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(backupsDir)) {
+            for (Path file : files) {
+                Matcher m = p.matcher(file.getFileName().toString());
+                if (m.matches()) {
+                    TreeMap<String, TreeSet<File>> backupFilesByDate = backupFilesByName.computeIfAbsent(m.group(1), k -> new TreeMap<String, TreeSet<File>>());
+                    backupFilesByDate.computeIfAbsent(m.group(1) + m.group(2), k -> new TreeSet<File>()).add(file.toFile());
+                }
             }
-        } catch (Exception ex) {
-            logger.severe("Error backing up database: " + ex.getMessage());
+        } catch (IOException ex) {
+            logger.severe("Could not list database backups directory: " + ex.getMessage());
             return;
         }
 
-        // Group backup files into one set per day based on filename.
-        final int datedFilenameLength = baseName.length() + 11;
-        TreeMap<String, TreeSet<File>> backupFilesByDate = new TreeMap<String, TreeSet<File>>();
-        Pattern p = Pattern.compile(baseName + "\\.\\d{4}-\\d{2}-\\d{2}-\\d{2}");
-        for (File file : backupsDir.toFile().listFiles()) {
-            String fileName = file.getName();
-            Matcher m = p.matcher(fileName);
-            if (m.matches()) {
-                String fileNameDatePrefix = fileName.substring(0, datedFilenameLength);
-                TreeSet<File> filesForDate = backupFilesByDate.getOrDefault(fileNameDatePrefix, new TreeSet<File>());
-                filesForDate.add(file);
-                backupFilesByDate.put(fileNameDatePrefix, filesForDate);
+        Calendar date = Calendar.getInstance();
+        String formattedDate = new SimpleDateFormat(".yyyy-MM-dd-HH").format(date.getTime());
+        for (Path databaseFile : getDBFiles()) {
+            if (!Files.exists(databaseFile)) {
+                continue;
+            }
+
+            String baseName = databaseFile.getFileName().toString();
+            TreeMap<String, TreeSet<File>> backupFilesByDate = backupFilesByName.computeIfAbsent(baseName, k -> new TreeMap<String, TreeSet<File>>());
+            try {
+                Path backupFile = backupsDir.resolve(baseName + formattedDate + ".gz");
+                if (!Files.exists(backupFile)) {
+                    Path source = getBackupSource(databaseFile);
+                    Path object;
+                    try {
+                        object = storeObject(source, objectsDir);
+                    } finally {
+                        if (!source.equals(databaseFile)) {
+                            Files.deleteIfExists(source);
+                        }
+                    }
+                    try {
+                        Files.createLink(backupFile, object);
+                    } catch (UnsupportedOperationException | IOException ex) {
+                        Files.copy(object, backupFile);
+                    }
+                    backupFilesByDate.computeIfAbsent(baseName + formattedDate.substring(0, 11), k -> new TreeSet<File>())
+                    .add(backupFile.toFile());
+                }
+            } catch (Exception ex) {
+                // Back up the remaining files and cull old backups regardless.
+                logger.severe("Error backing up database file " + baseName + ": " + ex.getMessage());
+                continue;
             }
         }
 
+        for (Entry<String, TreeMap<String, TreeSet<File>>> entry : backupFilesByName.entrySet()) {
+            cullBackups(entry.getKey(), entry.getValue(), (Calendar) date.clone());
+        }
+        cullObjects(objectsDir);
+    } // backup
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the file whose contents are backed up for a database file.
+     *
+     * By default, the database file itself is backed up. Implementations whose
+     * files may not be consistent on their own can return a temporary,
+     * consistent copy instead, which is deleted after it has been stored.
+     *
+     * @param databaseFile one of the files returned by {@link #getDBFiles()}.
+     * @return the file to back up.
+     * @throws Exception if a consistent copy cannot be made.
+     */
+    protected Path getBackupSource(Path databaseFile) throws Exception {
+        return databaseFile;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Delete old backups of one database file.
+     *
+     * All backups from the last 7 days are preserved. Before that, only the
+     * first backup of each day is preserved.
+     *
+     * @param baseName the name of the database file.
+     * @param backupFilesByDate map from database file name and backup date to
+     *        the set of backup files made on that date.
+     * @param date the current date; modified by this method.
+     */
+    protected void cullBackups(String baseName, TreeMap<String, TreeSet<File>> backupFilesByDate, Calendar date) {
+        Logger logger = EasyRider.PLUGIN.getLogger();
+
         // Exclude the last 7 days of backups from culling (including today).
         SimpleDateFormat dateFormatter = new SimpleDateFormat(".yyyy-MM-dd");
         for (int i = 0; i < 7; ++i) {
@@ -123,4 +244,117 @@ public abstract class HorseDBImplWithFile implements IHorseDBImpl {
             }
         }
     }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Store the compressed contents of a database file as an object named by
+     * the SHA-256 hash of its uncompressed contents, unless that object
+     * already exists.
+     *
+     * The file is hashed first, so that unchanged contents are only read, not
+     * compressed. New objects are compressed as a stream into a temporary file
+     * and then renamed into place, so that an object is never incomplete.
+     *
+     * @param databaseFile the database file.
+     * @param objectsDir the directory containing objects.
+     * @return the path to the object.
+     * @throws IOException if the file cannot be read or the object written.
+     */
+    protected static Path storeObject(Path databaseFile, Path objectsDir) throws IOException {
+        MessageDigest digest = null;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // SHA-256 is a required algorithm, so this should never happen.
+            throw new IOException(ex);
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(databaseFile)) {
+            int length;
+            while ((length = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, length);
+            }
+        }
+
+        Path object = objectsDir.resolve(toHex(digest.digest()) + ".gz");
+        if (Files.exists(object)) {
+            return object;
+        }
+
+        Path temporary = Files.createTempFile(objectsDir, "object", ".tmp");
+        try {
+            try (InputStream in = Files.newInputStream(databaseFile);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary), BUFFER_SIZE)) {
+                int length;
+                while ((length = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, length);
+                }
+            }
+            Files.move(temporary, object, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return object;
+    } // storeObject
+
+    // --------------------------------------------------------------------------
+    /**
+     * Delete objects that are no longer referenced by any backup, along with
+     * temporary files left behind by an interrupted backup.
+     *
+     * An object is unreferenced when its hard link count is 1. Where link
+     * counts are not available, all objects are deleted; backups hold their
+     * own links or copies, so only the de-duplication of the next backup is
+     * lost.
+     *
+     * @param objectsDir the directory containing objects.
+     */
+    protected void cullObjects(Path objectsDir) {
+        Logger logger = EasyRider.PLUGIN.getLogger();
+        try (DirectoryStream<Path> objects = Files.newDirectoryStream(objectsDir)) {
+            for (Path object : objects) {
+                boolean unreferenced = true;
+                if (object.getFileName().toString().endsWith(".gz")) {
+                    try {
+                        unreferenced = ((Integer) Files.getAttribute(object, "unix:nlink")) <= 1;
+                    } catch (UnsupportedOperationException | IllegalArgumentException ex) {
+                        // No link count: treat the object as unreferenced.
+                    }
+                }
+
+                if (unreferenced) {
+                    if (EasyRider.CONFIG.DEBUG_PURGES) {
+                        logger.info("Removing unreferenced backup object: " + object.getFileName());
+                    }
+                    Files.deleteIfExists(object);
+                }
+            }
+        } catch (IOException ex) {
+            logger.severe("Could not remove unreferenced backup objects: " + ex.getMessage());
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the lower case hexadecimal representation of a byte array.
+     *
+     * @param bytes the bytes.
+     * @return the hexadecimal string.
+     */
+    protected static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Size of the buffers used to hash and compress database files.
+     */
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
 } // class HorseDBImplWithFile
\ No newline at end of file
@@ -0,0 +1,545 @@
+package nu.nerd.easyrider.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import nu.nerd.easyrider.EasyRider;
+
+// ----------------------------------------------------------------------------
+/**
+ * A database implementation that writes to a primary implementation
+ * synchronously and replicates the same writes to a secondary implementation
+ * asynchronously, e.g. to run a new backend alongside the current one and
+ * compare their write times.
+ *
+ * Horses are only loaded from the primary. Writes to the secondary are
+ * performed by a dedicated thread. Writes that are waiting for that thread are
+ * merged by horse UUID, keeping the latest copy of each saved horse and the
+ * deletion of each deleted horse, so the pending work is bounded by the number
+ * of horses and no write is ever dropped or delays the caller.
+ *
+ * When the mirror is closed with the secondary up to date, a marker file
+ * records the size and modification time of the primary's files. On the next
+ * {@link #loadAll()}, the secondary is only resynchronised from the primary
+ * if the marker is missing or the primary's files have changed since, e.g.
+ * after a crash, a failed write to the secondary, or a period in which the
+ * primary was used on its own.
+ */
+public class HorseDBImplWithMirror implements IHorseDBImpl {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param primary the primary implementation.
+     * @param secondary the secondary implementation.
+     */
+    public HorseDBImplWithMirror(IHorseDBImpl primary, IHorseDBImpl secondary) {
+        _primary = primary;
+        _secondary = secondary;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#getType()
+     *
+     *      The type is "<primary>+<secondary>", e.g. "sqlite+yaml".
+     */
+    @Override
+    public String getType() {
+        return _primary.getType() + "+" + _secondary.getType();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#isIncremental()
+     *
+     *      Saves are only incremental if both implementations' saves are.
+     */
+    @Override
+    public boolean isIncremental() {
+        return _primary.isIncremental() && _secondary.isIncremental();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#backup()
+     */
+    @Override
+    public void backup() {
+        _primary.backup();
+        synchronized (_pendingLock) {
+            _backupPending = true;
+            schedule();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#saveAll(java.util.Collection)
+     *
+     *      The secondary is passed copies of the horses, since it writes them
+     *      after this method returns. Only failures of the primary are
+     *      thrown; failures of the secondary are logged.
+     */
+    @Override
+    public void saveAll(Collection<SavedHorse> collection) throws IOException {
+        if (collection.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        _primary.saveAll(collection);
+        logTime("primary", "saveAll", collection.size(), System.nanoTime() - start);
+
+        ArrayList<SavedHorse> copies = copy(collection);
+        synchronized (_pendingLock) {
+            for (SavedHorse copy : copies) {
+                _pendingDeletes.remove(copy.getUuid());
+                SavedHorse pending = _pendingSaves.put(copy.getUuid(), copy);
+                if (pending != null && pending.isNew()) {
+                    // Not yet inserted in the secondary.
+                    copy.setNew();
+                }
+            }
+            schedule();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#loadAll()
+     *
+     *      Horses are loaded from the primary. If the secondary may be out of
+     *      date, it is then resynchronised in the background to contain copies
+     *      of exactly those horses.
+     */
+    @Override
+    public Collection<SavedHorse> loadAll() {
+        boolean inSync = isSecondaryInSync();
+        Collection<SavedHorse> horses = _primary.loadAll();
+        if (!inSync) {
+            ArrayList<SavedHorse> copies = copy(horses);
+            synchronized (_pendingLock) {
+                _pendingResync = copies;
+                _pendingSaves.clear();
+                _pendingDeletes.clear();
+                schedule();
+            }
+        }
+        return horses;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#delete(java.util.Collection)
+     *
+     *      Only failures of the primary are thrown; failures of the secondary
+     *      are logged.
+     */
+    @Override
+    public void delete(Collection<SavedHorse> collection) throws IOException {
+        if (collection.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        _primary.delete(collection);
+        logTime("primary", "delete", collection.size(), System.nanoTime() - start);
+
+        // Deletion only depends on the UUID, so copies are not needed.
+        synchronized (_pendingLock) {
+            for (SavedHorse savedHorse : collection) {
+                _pendingSaves.remove(savedHorse.getUuid());
+                _pendingDeletes.put(savedHorse.getUuid(), savedHorse);
+            }
+            schedule();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#close()
+     *
+     *      Waits for pending writes to the secondary to complete before closing
+     *      it. If they all succeeded, the marker recording that the secondary
+     *      is in sync with the primary is written.
+     */
+    @Override
+    public synchronized void close() {
+        _primary.close();
+        Thread thread;
+        synchronized (_pendingLock) {
+            thread = _secondaryThread;
+            _stopping = true;
+            _pendingLock.notifyAll();
+        }
+
+        boolean drained = true;
+        if (thread != null) {
+            try {
+                thread.join(TimeUnit.MINUTES.toMillis(1));
+                if (thread.isAlive()) {
+                    EasyRider.PLUGIN.getLogger().severe("Timed out waiting for " + _secondary.getType() +
+                                                        " secondary database writes to complete.");
+                    drained = false;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                drained = false;
+            }
+        }
+        synchronized (_pendingLock) {
+            _stopping = false;
+        }
+        _secondary.close();
+
+        if (drained && !_secondaryOutOfDate) {
+            writeSyncMarker();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start the thread that writes to the secondary implementation if it is
+     * not running, and wake it to perform pending writes.
+     *
+     * This method must be called with _pendingLock held, after adding a
+     * pending write.
+     */
+    protected void schedule() {
+        if (_syncMarkerWritten) {
+            // The secondary will no longer match the primary's files.
+            _syncMarkerWritten = false;
+            try {
+                Files.deleteIfExists(getSyncMarkerFile());
+            } catch (IOException ex) {
+                EasyRider.PLUGIN.getLogger().severe("Unable to delete " + getSyncMarkerFile() + ": " + ex.getMessage());
+            }
+        }
+
+        if (_secondaryThread == null) {
+            _secondaryThread = new Thread(this::runSecondary, "EasyRider Secondary Database");
+            _secondaryThread.start();
+        }
+        _pendingLock.notifyAll();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Perform pending writes to the secondary implementation until the mirror
+     * is closed.
+     *
+     * This method runs in the secondary thread. A resynchronisation is
+     * performed first, then deletions and the latest copies of saved horses,
+     * which never refer to the same horse. The thread exits once the mirror
+     * is closing and no writes are pending, and a later write starts a new
+     * one.
+     */
+    protected void runSecondary() {
+        for (;;) {
+            ArrayList<SavedHorse> resync;
+            ArrayList<SavedHorse> deletes;
+            ArrayList<SavedHorse> saves;
+            boolean backup;
+            synchronized (_pendingLock) {
+                while (!hasPendingWrites() && !_stopping) {
+                    try {
+                        _pendingLock.wait();
+                    } catch (InterruptedException ex) {
+                        _secondaryThread = null;
+                        return;
+                    }
+                }
+                if (!hasPendingWrites()) {
+                    _secondaryThread = null;
+                    return;
+                }
+
+                resync = _pendingResync;
+                _pendingResync = null;
+                deletes = new ArrayList<SavedHorse>(_pendingDeletes.values());
+                _pendingDeletes.clear();
+                saves = new ArrayList<SavedHorse>(_pendingSaves.values());
+                _pendingSaves.clear();
+                backup = _backupPending;
+                _backupPending = false;
+            }
+
+            if (resync != null) {
+                write("resynchronise", resync.size(), () -> resynchronise(resync));
+            }
+            if (!deletes.isEmpty()) {
+                write("delete", deletes.size(), () -> _secondary.delete(deletes));
+            }
+            if (!saves.isEmpty()) {
+                write("saveAll", saves.size(), () -> _secondary.saveAll(saves));
+            }
+            if (backup) {
+                write("backup", 0, () -> _secondary.backup());
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if there are writes waiting for the secondary thread.
+     *
+     * This method must be called with _pendingLock held.
+     *
+     * @return true if there are pending writes.
+     */
+    protected boolean hasPendingWrites() {
+        return _pendingResync != null || !_pendingDeletes.isEmpty() || !_pendingSaves.isEmpty() || _backupPending;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Perform a write to the secondary implementation, logging its time and
+     * any failure, after which the secondary is out of date.
+     *
+     * @param operation the name of the operation, for logging.
+     * @param count the number of horses written.
+     * @param write the write.
+     */
+    protected void write(String operation, int count, SecondaryWrite write) {
+        long start = System.nanoTime();
+        try {
+            write.run();
+        } catch (Exception ex) {
+            _secondaryOutOfDate = true;
+            EasyRider.PLUGIN.getLogger().severe(_secondary.getType() + " secondary database " + operation +
+                                                " failed: " + ex.getMessage());
+        }
+        logTime("secondary", operation, count, System.nanoTime() - start);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Make the secondary contain exactly the specified horses.
+     *
+     * @param copies copies of all horses in the primary.
+     * @throws IOException if the secondary could not be written.
+     */
+    protected void resynchronise(Collection<SavedHorse> copies) throws IOException {
+        HashSet<UUID> uuids = new HashSet<UUID>();
+        for (SavedHorse copy : copies) {
+            uuids.add(copy.getUuid());
+        }
+
+        ArrayList<SavedHorse> extraHorses = new ArrayList<SavedHorse>();
+        for (SavedHorse savedHorse : _secondary.loadAll()) {
+            if (!uuids.contains(savedHorse.getUuid())) {
+                extraHorses.add(savedHorse);
+            }
+        }
+        if (!extraHorses.isEmpty()) {
+            _secondary.delete(extraHorses);
+        }
+        _secondary.saveAll(copies);
+        _secondaryOutOfDate = false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the marker written by the last {@link #close()} shows
+     * that the secondary matches the primary's current files.
+     *
+     * The marker is deleted, so that the secondary is resynchronised after a
+     * crash.
+     *
+     * @return true if the secondary need not be resynchronised.
+     */
+    protected boolean isSecondaryInSync() {
+        Path markerFile = getSyncMarkerFile();
+        try {
+            if (!Files.exists(markerFile)) {
+                return false;
+            }
+            String marker = new String(Files.readAllBytes(markerFile), StandardCharsets.UTF_8);
+            Files.delete(markerFile);
+            String fingerprint = getPrimaryFingerprint();
+            return fingerprint != null && fingerprint.equals(marker);
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().warning("Unable to read " + markerFile + ": " + ex.getMessage());
+            return false;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the marker recording that the secondary matches the primary's
+     * current files.
+     */
+    protected void writeSyncMarker() {
+        Path markerFile = getSyncMarkerFile();
+        try {
+            String fingerprint = getPrimaryFingerprint();
+            if (fingerprint != null) {
+                Files.write(markerFile, fingerprint.getBytes(StandardCharsets.UTF_8));
+                synchronized (_pendingLock) {
+                    _syncMarkerWritten = true;
+                }
+            }
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().warning("Unable to write " + markerFile + ": " + ex.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the path of the marker recording that the secondary matches the
+     * primary, e.g. "sqlite+yaml.synced".
+     *
+     * @return the path.
+     */
+    protected Path getSyncMarkerFile() {
+        return new File(EasyRider.PLUGIN.getDataFolder(), getType() + ".synced").toPath();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a description of the name, size and modification time of each of
+     * the primary's files, which changes whenever the primary is written.
+     *
+     * @return the description, or null if the primary is not stored in files.
+     * @throws IOException if the files cannot be examined.
+     */
+    protected String getPrimaryFingerprint() throws IOException {
+        if (!(_primary instanceof HorseDBImplWithFile)) {
+            return null;
+        }
+
+        StringBuilder fingerprint = new StringBuilder();
+        for (Path file : ((HorseDBImplWithFile) _primary).getDBFiles()) {
+            if (Files.exists(file)) {
+                fingerprint.append(file.getFileName()).append('\t').append(Files.size(file)).append('\t')
+                .append(Files.getLastModifiedTime(file).toMillis()).append('\n');
+            }
+        }
+        return fingerprint.toString();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Log the time taken by an operation, if configured.
+     *
+     * @param role "primary" or "secondary".
+     * @param operation the name of the operation.
+     * @param count the number of horses.
+     * @param nanos the elapsed time in nanoseconds.
+     */
+    protected void logTime(String role, String operation, int count, long nanos) {
+        if (EasyRider.CONFIG.DEBUG_SAVES) {
+            IHorseDBImpl impl = role.equals("primary") ? _primary : _secondary;
+            EasyRider.PLUGIN.getLogger().info(impl.getType() + " " + role + " " + operation + " time: " +
+                                              (1e-6 * nanos) + " ms (" + count + " horses)");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return copies of the specified horses.
+     *
+     * @param collection the horses.
+     * @return the copies.
+     */
+    protected static ArrayList<SavedHorse> copy(Collection<SavedHorse> collection) {
+        ArrayList<SavedHorse> copies = new ArrayList<SavedHorse>(collection.size());
+        for (SavedHorse savedHorse : collection) {
+            try {
+                copies.add((SavedHorse) savedHorse.clone());
+            } catch (CloneNotSupportedException ex) {
+                // Should never happen.
+            }
+        }
+        return copies;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A write to the secondary implementation.
+     */
+    @FunctionalInterface
+    protected interface SecondaryWrite {
+        // --------------------------------------------------------------------
+        /**
+         * Perform the write.
+         *
+         * @throws IOException if the write fails.
+         */
+        public void run() throws IOException;
+    } // interface SecondaryWrite
+
+    // ------------------------------------------------------------------------
+    /**
+     * The primary implementation.
+     */
+    protected final IHorseDBImpl _primary;
+
+    /**
+     * The secondary implementation.
+     */
+    protected final IHorseDBImpl _secondary;
+
+    /**
+     * Guards the pending writes, _stopping, _syncMarkerWritten and
+     * _secondaryThread; notified when they change.
+     */
+    protected final Object _pendingLock = new Object();
+
+    /**
+     * Copies of all horses to resynchronise the secondary with, or null if
+     * no resynchronisation is pending.
+     */
+    protected ArrayList<SavedHorse> _pendingResync;
+
+    /**
+     * Map from UUID to the latest copy of each horse waiting to be saved to
+     * the secondary, in order of first save.
+     */
+    protected final LinkedHashMap<UUID, SavedHorse> _pendingSaves = new LinkedHashMap<UUID, SavedHorse>();
+
+    /**
+     * Map from UUID to each horse waiting to be deleted from the secondary.
+     */
+    protected final LinkedHashMap<UUID, SavedHorse> _pendingDeletes = new LinkedHashMap<UUID, SavedHorse>();
+
+    /**
+     * True if a backup of the secondary is pending.
+     */
+    protected boolean _backupPending;
+
+    /**
+     * True while {@link #close()} waits for the secondary thread to finish
+     * the pending writes and exit.
+     */
+    protected boolean _stopping;
+
+    /**
+     * True if the marker file has been written by {@link #close()} and must
+     * be deleted before the secondary is next written.
+     */
+    protected boolean _syncMarkerWritten;
+
+    /**
+     * The thread that writes to the secondary implementation, or null if not
+     * running.
+     */
+    protected Thread _secondaryThread;
+
+    /**
+     * True if a write to the secondary implementation has failed since it was
+     * last resynchronised.
+     */
+    protected volatile boolean _secondaryOutOfDate;
+
+} // class HorseDBImplWithMirror
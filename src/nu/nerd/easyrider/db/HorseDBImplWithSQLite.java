@@ -0,0 +1,399 @@
+package nu.nerd.easyrider.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.UUID;
+
+import nu.nerd.easyrider.EasyRider;
+
+// --------------------------------------------------------------------------
+/**
+ * Storage of all horses in an SQLite database.
+ *
+ * The database is opened in WAL mode. Each call to
+ * {@link #saveAll(Collection)} or {@link #delete(Collection)} is a single
+ * transaction of batched statements. The players permitted to access a horse
+ * are stored in a child table keyed by horse UUID. The inventory is stored in
+ * the serialised form used by the binary implementation, as a single column,
+ * and is only deserialised when it is first accessed.
+ *
+ * The connection is opened lazily and shared by all methods, which are
+ * synchronized so that it is only ever used by one thread at a time, even if,
+ * e.g., a backup in the I/O thread were to overlap a load in the main thread.
+ */
+public class HorseDBImplWithSQLite extends HorseDBImplWithFile {
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#getType()
+     */
+    @Override
+    public String getType() {
+        return "sqlite";
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#isIncremental()
+     */
+    @Override
+    public boolean isIncremental() {
+        return true;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.HorseDBImplWithFile#getDBFile()
+     */
+    @Override
+    public Path getDBFile() {
+        return new File(EasyRider.PLUGIN.getDataFolder(), "horses.db").toPath();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#loadAll()
+     */
+    @Override
+    public synchronized Collection<SavedHorse> loadAll() {
+        long start = System.nanoTime();
+        HashMap<String, SavedHorse> horses = new HashMap<String, SavedHorse>();
+        try (Statement statement = getConnection().createStatement()) {
+            try (ResultSet row = statement.executeQuery("SELECT * FROM horses")) {
+                while (row.next()) {
+                    String uuid = row.getString("uuid");
+                    try {
+                        horses.put(uuid, loadHorse(row));
+                    } catch (Exception ex) {
+                        // Should not happen. Mitigate the damage.
+                        EasyRider.PLUGIN.getLogger().severe("Failed to load horse " + uuid + ": " + ex.getMessage());
+                    }
+                }
+            }
+
+            try (ResultSet row = statement.executeQuery("SELECT * FROM permitted_players")) {
+                while (row.next()) {
+                    SavedHorse savedHorse = horses.get(row.getString("horse_uuid"));
+                    if (savedHorse != null) {
+                        savedHorse.addPermittedPlayerUuid(UUID.fromString(row.getString("player_uuid")));
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to read SQLite database: " + ex.getMessage());
+        }
+
+        for (SavedHorse savedHorse : horses.values()) {
+            savedHorse.setClean();
+        }
+        HorseDB.METRICS.recordTime(getType() + ".parse", start);
+        return horses.values();
+    } // loadAll
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#saveAll(java.util.Collection)
+     *
+     *      Horses are upserted, and their permitted players replaced, in a
+     *      single transaction.
+     */
+    @Override
+    public synchronized void saveAll(Collection<SavedHorse> collection) throws IOException {
+        if (collection.isEmpty()) {
+            return;
+        }
+
+        try {
+            long start = System.nanoTime();
+            Connection connection = getConnection();
+            try (PreparedStatement upsertHorse = connection.prepareStatement(UPSERT_HORSE);
+                 PreparedStatement deletePlayers = connection.prepareStatement("DELETE FROM permitted_players WHERE horse_uuid = ?");
+                 PreparedStatement insertPlayer = connection.prepareStatement("INSERT INTO permitted_players VALUES (?, ?)")) {
+                for (SavedHorse savedHorse : collection) {
+                    String uuid = savedHorse.getUuid().toString();
+                    try {
+                        bindHorse(upsertHorse, savedHorse);
+                        upsertHorse.addBatch();
+
+                        deletePlayers.setString(1, uuid);
+                        deletePlayers.addBatch();
+                        for (UUID playerUuid : savedHorse.getPermittedPlayerUuids()) {
+                            insertPlayer.setString(1, uuid);
+                            insertPlayer.setString(2, playerUuid.toString());
+                            insertPlayer.addBatch();
+                        }
+                    } catch (Exception ex) {
+                        // Should not happen. Mitigate the damage.
+                        EasyRider.PLUGIN.getLogger().severe("Failed to save horse " + uuid + ": " + ex.getMessage());
+                    }
+                }
+
+                HorseDB.METRICS.recordTime(getType() + ".serialise", start);
+
+                // Children are deleted before they are reinserted.
+                long writeStart = System.nanoTime();
+                upsertHorse.executeBatch();
+                deletePlayers.executeBatch();
+                insertPlayer.executeBatch();
+                HorseDB.METRICS.recordTime(getType() + ".write", writeStart);
+
+                long commitStart = System.nanoTime();
+                connection.commit();
+                HorseDB.METRICS.recordTime(getType() + ".fsync", commitStart);
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            }
+
+            for (SavedHorse savedHorse : collection) {
+                savedHorse.setClean();
+            }
+        } catch (SQLException ex) {
+            throw new IOException("Unable to write SQLite database: " + ex.getMessage(), ex);
+        }
+    } // saveAll
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#delete(java.util.Collection)
+     */
+    @Override
+    public synchronized void delete(Collection<SavedHorse> collection) throws IOException {
+        if (collection.isEmpty()) {
+            return;
+        }
+
+        try {
+            Connection connection = getConnection();
+            try (PreparedStatement deleteHorse = connection.prepareStatement("DELETE FROM horses WHERE uuid = ?");
+                 PreparedStatement deletePlayers = connection.prepareStatement("DELETE FROM permitted_players WHERE horse_uuid = ?")) {
+                for (SavedHorse savedHorse : collection) {
+                    String uuid = savedHorse.getUuid().toString();
+                    deleteHorse.setString(1, uuid);
+                    deleteHorse.addBatch();
+                    deletePlayers.setString(1, uuid);
+                    deletePlayers.addBatch();
+                }
+                deleteHorse.executeBatch();
+                deletePlayers.executeBatch();
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        } catch (SQLException ex) {
+            throw new IOException("Unable to delete from SQLite database: " + ex.getMessage(), ex);
+        }
+    } // delete
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.HorseDBImplWithFile#getBackupSource(java.nio.file.Path)
+     *
+     *      In WAL mode, recent commits may only be in "horses.db-wal", so the
+     *      database file alone is not a consistent backup. Instead, a
+     *      consistent copy of the database is written through the connection
+     *      with VACUUM INTO, which includes the write-ahead log.
+     */
+    @Override
+    protected synchronized Path getBackupSource(Path databaseFile) throws Exception {
+        Path copy = databaseFile.resolveSibling(databaseFile.getFileName() + ".backup");
+        Files.deleteIfExists(copy);
+
+        // VACUUM cannot run inside a transaction, so commit each statement.
+        Connection connection = getConnection();
+        connection.setAutoCommit(true);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("VACUUM INTO '" + copy.toString().replace("'", "''") + "'");
+        } finally {
+            connection.setAutoCommit(false);
+        }
+        return copy;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#close()
+     *
+     *      Closing the connection checkpoints the write-ahead log into the
+     *      database file, so that the file alone can be backed up.
+     */
+    @Override
+    public synchronized void close() {
+        if (_connection != null) {
+            try {
+                _connection.close();
+            } catch (SQLException ex) {
+                EasyRider.PLUGIN.getLogger().severe("Unable to close SQLite database: " + ex.getMessage());
+            }
+            _connection = null;
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the connection to the database, opening it and creating the
+     * schema as necessary.
+     *
+     * The caller must hold this object's monitor while using the connection.
+     *
+     * @return the connection, with auto-commit disabled.
+     * @throws SQLException if the database cannot be opened.
+     */
+    protected synchronized Connection getConnection() throws SQLException {
+        if (_connection == null) {
+            try {
+                Class.forName("org.sqlite.JDBC");
+            } catch (ClassNotFoundException ex) {
+                throw new SQLException("SQLite JDBC driver not found");
+            }
+
+            _connection = DriverManager.getConnection("jdbc:sqlite:" + getDBFile().toString());
+            try (Statement statement = _connection.createStatement()) {
+                statement.execute("PRAGMA journal_mode = WAL");
+                statement.execute("PRAGMA synchronous = NORMAL");
+                statement.execute("CREATE TABLE IF NOT EXISTS horses (" +
+                                  "uuid TEXT PRIMARY KEY, " +
+                                  "owner_uuid TEXT, " +
+                                  "name TEXT, " +
+                                  "display_name TEXT, " +
+                                  "appearance TEXT, " +
+                                  "world TEXT, " +
+                                  "x REAL, " +
+                                  "y REAL, " +
+                                  "z REAL, " +
+                                  "equipment INTEGER, " +
+                                  "distance_travelled REAL, " +
+                                  "distance_jumped REAL, " +
+                                  "nuggets_eaten INTEGER, " +
+                                  "speed_level INTEGER, " +
+                                  "jump_level INTEGER, " +
+                                  "health_level INTEGER, " +
+                                  "hydration REAL, " +
+                                  "last_accessed INTEGER, " +
+                                  "last_observed INTEGER, " +
+                                  "last_tamed INTEGER, " +
+                                  "outdated_attributes INTEGER, " +
+                                  "inventory BLOB)");
+                statement.execute("CREATE TABLE IF NOT EXISTS permitted_players (" +
+                                  "horse_uuid TEXT, " +
+                                  "player_uuid TEXT, " +
+                                  "PRIMARY KEY (horse_uuid, player_uuid)) WITHOUT ROWID");
+            }
+            _connection.setAutoCommit(false);
+        }
+        return _connection;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Create a horse from a row of the horses table.
+     *
+     * The permitted players are loaded separately. The inventory is kept in
+     * its serialised form until it is accessed.
+     *
+     * @param row the result set, positioned at the row.
+     * @return the horse.
+     * @throws SQLException if a column cannot be read.
+     */
+    protected SavedHorse loadHorse(ResultSet row) throws SQLException {
+        SavedHorse savedHorse = new SavedHorse();
+        savedHorse.setUuid(UUID.fromString(row.getString("uuid")));
+        String ownerUuid = row.getString("owner_uuid");
+        savedHorse.setOwnerUuid(ownerUuid != null ? UUID.fromString(ownerUuid) : null);
+        savedHorse.setLastTamed(row.getLong("last_tamed"));
+        savedHorse.setName(row.getString("name"));
+        savedHorse.setDisplayName(row.getString("display_name"));
+        savedHorse.setAppearance(row.getString("appearance"));
+
+        String worldName = row.getString("world");
+        if (worldName != null) {
+            savedHorse.setLocation(worldName, row.getDouble("x"), row.getDouble("y"), row.getDouble("z"));
+        }
+
+        savedHorse.setEquipment(row.getInt("equipment"));
+        savedHorse.setDistanceTravelled(row.getDouble("distance_travelled"));
+        savedHorse.setDistanceJumped(row.getDouble("distance_jumped"));
+        savedHorse.setNuggetsEaten(row.getInt("nuggets_eaten"));
+        savedHorse.setSpeedLevel(row.getInt("speed_level"));
+        savedHorse.setJumpLevel(row.getInt("jump_level"));
+        savedHorse.setHealthLevel(row.getInt("health_level"));
+        savedHorse.setHydration(row.getDouble("hydration"));
+        savedHorse.setLastAccessed(row.getLong("last_accessed"));
+        savedHorse.setLastObserved(row.getLong("last_observed"));
+        savedHorse.setOutdatedAttributes(row.getInt("outdated_attributes") != 0);
+
+        byte[] inventory = row.getBytes("inventory");
+        if (inventory != null) {
+            savedHorse.setSerialisedInventory(inventory);
+        }
+        return savedHorse;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Bind the parameters of {@link #UPSERT_HORSE} to the attributes of a
+     * horse.
+     *
+     * @param statement the prepared statement.
+     * @param savedHorse the horse.
+     * @throws SQLException if a parameter cannot be set.
+     */
+    protected void bindHorse(PreparedStatement statement, SavedHorse savedHorse) throws SQLException {
+        statement.setString(1, savedHorse.getUuid().toString());
+        statement.setString(2, (savedHorse.getOwnerUuid() != null) ? savedHorse.getOwnerUuid().toString() : null);
+        statement.setString(3, savedHorse.getName());
+        statement.setString(4, savedHorse.getDisplayName());
+        statement.setString(5, savedHorse.getAppearance());
+
+        if (savedHorse.hasLocation()) {
+            statement.setString(6, savedHorse.getWorldName());
+            statement.setDouble(7, savedHorse.getX());
+            statement.setDouble(8, savedHorse.getY());
+            statement.setDouble(9, savedHorse.getZ());
+        } else {
+            for (int i = 6; i <= 9; ++i) {
+                statement.setNull(i, (i == 6) ? Types.VARCHAR : Types.REAL);
+            }
+        }
+
+        statement.setInt(10, savedHorse.getEquipment());
+        statement.setDouble(11, savedHorse.getDistanceTravelled());
+        statement.setDouble(12, savedHorse.getDistanceJumped());
+        statement.setInt(13, savedHorse.getNuggetsEaten());
+        statement.setInt(14, savedHorse.getSpeedLevel());
+        statement.setInt(15, savedHorse.getJumpLevel());
+        statement.setInt(16, savedHorse.getHealthLevel());
+        statement.setDouble(17, savedHorse.getHydration());
+        statement.setLong(18, savedHorse.getLastAccessed());
+        statement.setLong(19, savedHorse.getLastObserved());
+        statement.setLong(20, savedHorse.getLastTamed());
+        statement.setInt(21, savedHorse.hasOutdatedAttributes() ? 1 : 0);
+        statement.setBytes(22, savedHorse.getSerialisedInventory());
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Insert or replace a row of the horses table.
+     */
+    protected static final String UPSERT_HORSE = "INSERT OR REPLACE INTO horses VALUES (" +
+                                                 "?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, " +
+                                                 "?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * The connection to the database, or null if not open; guarded by this
+     * object's monitor.
+     */
+    protected Connection _connection;
+
+} // class HorseDBImplWithSQLite
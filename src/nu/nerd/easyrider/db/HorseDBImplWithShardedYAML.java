@@ -0,0 +1,232 @@
+package nu.nerd.easyrider.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import nu.nerd.easyrider.EasyRider;
+
+// --------------------------------------------------------------------------
+/**
+ * Storage of horses in {@link #SHARD_COUNT} YAML files, selected by the first
+ * byte of the horse's UUID.
+ *
+ * Only the shards containing saved or deleted horses are rewritten, so the
+ * cost of a save is bounded by the number of changed horses rather than the
+ * size of the database. Unchanged shards are hard linked rather than copied
+ * when backed up.
+ */
+public class HorseDBImplWithShardedYAML extends HorseDBImplWithFile {
+    // --------------------------------------------------------------------------
+    /**
+     * Default constructor.
+     */
+    public HorseDBImplWithShardedYAML() {
+        for (int shard = 0; shard < SHARD_COUNT; ++shard) {
+            _shards[shard] = new YAMLHorseFile();
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#getType()
+     */
+    @Override
+    public String getType() {
+        return "sharded-yaml";
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#isIncremental()
+     *
+     *      Only the shards containing the horses are rewritten.
+     */
+    @Override
+    public boolean isIncremental() {
+        return true;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.HorseDBImplWithFile#getDBFile()
+     *
+     *      The returned path is the directory containing the shards.
+     */
+    @Override
+    public Path getDBFile() {
+        return new File(EasyRider.PLUGIN.getDataFolder(), "horses").toPath();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.HorseDBImplWithFile#getDBFiles()
+     */
+    @Override
+    public List<Path> getDBFiles() {
+        ArrayList<Path> files = new ArrayList<Path>(SHARD_COUNT);
+        for (int shard = 0; shard < SHARD_COUNT; ++shard) {
+            files.add(getShardFile(shard));
+        }
+        return files;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#loadAll()
+     *
+     *      Shards are parsed and their horses loaded in parallel in the common
+     *      fork-join pool.
+     */
+    @Override
+    public Collection<SavedHorse> loadAll() {
+        long start = System.nanoTime();
+        List<SavedHorse> horses = IntStream.range(0, SHARD_COUNT).parallel()
+        .mapToObj(shard -> _shards[shard].load(getShardFile(shard)))
+        .flatMap(List::stream).collect(Collectors.toList());
+        HorseDB.METRICS.recordTime(getType() + ".parse", start);
+        return horses;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#saveAll(java.util.Collection)
+     */
+    @Override
+    public void saveAll(Collection<SavedHorse> collection) throws IOException {
+        long start = System.nanoTime();
+        BitSet changedShards = new BitSet(SHARD_COUNT);
+        for (SavedHorse savedHorse : collection) {
+            int shard = getShard(savedHorse.getUuid());
+            if (_shards[shard].save(Collections.singleton(savedHorse))) {
+                changedShards.set(shard);
+            }
+        }
+        HorseDB.METRICS.recordTime(getType() + ".serialise", start);
+        writeToDisk(changedShards);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#delete(java.util.Collection)
+     */
+    @Override
+    public void delete(Collection<SavedHorse> collection) throws IOException {
+        BitSet changedShards = new BitSet(SHARD_COUNT);
+        for (SavedHorse savedHorse : collection) {
+            int shard = getShard(savedHorse.getUuid());
+            if (_shards[shard].delete(Collections.singleton(savedHorse))) {
+                changedShards.set(shard);
+            }
+        }
+        writeToDisk(changedShards);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#close()
+     *
+     *      The YAML files are not held open, so there is nothing to do.
+     */
+    @Override
+    public void close() {
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Write the specified shards to disk, along with any shards that could
+     * not be written previously.
+     *
+     * Every shard is attempted, even if an earlier one fails. Shards that fail
+     * are retried by the next write, since a retried save or deletion of the
+     * same horses would not change them again.
+     *
+     * @param changedShards the set of indices of shards to write.
+     * @throws IOException if any shard could not be written.
+     */
+    protected void writeToDisk(BitSet changedShards) throws IOException {
+        changedShards.or(_unwrittenShards);
+        if (changedShards.isEmpty()) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(getDBFile());
+        } catch (IOException ex) {
+            _unwrittenShards.or(changedShards);
+            throw new IOException("Unable to create YAML database directory: " + getDBFile().toString(), ex);
+        }
+
+        _unwrittenShards.clear();
+        IOException failure = null;
+        for (int shard = changedShards.nextSetBit(0); shard >= 0; shard = changedShards.nextSetBit(shard + 1)) {
+            Path shardFile = getShardFile(shard);
+            try {
+                YAMLHorseFile shardHorses = _shards[shard];
+                writeFile(shardFile, tempFile -> shardHorses.write(shardFile, tempFile));
+                shardHorses.written();
+            } catch (IOException ex) {
+                EasyRider.PLUGIN.getLogger().severe("Unable to write YAML database: " + shardFile.toString());
+                _unwrittenShards.set(shard);
+                failure = ex;
+            }
+        }
+
+        if (EasyRider.CONFIG.DEBUG_SAVES) {
+            EasyRider.PLUGIN.getLogger().info("Wrote " + (changedShards.cardinality() - _unwrittenShards.cardinality()) +
+                                              " of " + SHARD_COUNT + " shards.");
+        }
+        if (failure != null) {
+            throw new IOException("Unable to write " + _unwrittenShards.cardinality() + " YAML database shards", failure);
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the index of the shard containing the horse with the specified
+     * UUID.
+     *
+     * @param uuid the horse's UUID.
+     * @return the shard index: the first byte of the UUID.
+     */
+    protected static int getShard(UUID uuid) {
+        return (int) (uuid.getMostSignificantBits() >>> 56);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the path to the file containing the specified shard.
+     *
+     * @param shard the shard index.
+     * @return the path to the file containing the specified shard.
+     */
+    protected Path getShardFile(int shard) {
+        return getDBFile().resolve(String.format("horses-%02x.yml", shard));
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Number of shards.
+     */
+    protected static final int SHARD_COUNT = 256;
+
+    /**
+     * The shards, indexed by the first byte of the horse UUID.
+     */
+    protected YAMLHorseFile[] _shards = new YAMLHorseFile[SHARD_COUNT];
+
+    /**
+     * The set of indices of shards whose last write failed.
+     */
+    protected BitSet _unwrittenShards = new BitSet(SHARD_COUNT);
+
+} // class HorseDBImplWithShardedYAML
@@ -3,11 +3,8 @@ package nu.nerd.easyrider.db;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.Collection;
 
-import org.bukkit.configuration.file.YamlConfiguration;
-
 import nu.nerd.easyrider.EasyRider;
 
 // --------------------------------------------------------------------------
@@ -24,6 +21,15 @@ public class HorseDBImplWithYAML extends HorseDBImplWithFile {
         return "yaml";
     }
 
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#isIncremental()
+     */
+    @Override
+    public boolean isIncremental() {
+        return false;
+    }
+
     // --------------------------------------------------------------------------
     /**
      * @see nu.nerd.easyrider.db.HorseDBImplWithFile#getDBFile()
@@ -39,19 +45,10 @@ public class HorseDBImplWithYAML extends HorseDBImplWithFile {
      */
     @Override
     public Collection<SavedHorse> loadAll() {
-        ArrayList<SavedHorse> result = new ArrayList<SavedHorse>();
-        _config = YamlConfiguration.loadConfiguration(getDBFile().toFile());
-        for (String uuid : _config.getKeys(false)) {
-            SavedHorse savedHorse = new SavedHorse();
-            try {
-                savedHorse.load(_config.getConfigurationSection(uuid));
-            } catch (Exception ex) {
-                // Should not happen. Mitigate the damage.
-                EasyRider.PLUGIN.getLogger().severe("Failed to load horse " + uuid + ": " + ex.getMessage());
-            }
-            result.add(savedHorse);
-        }
-        return result;
+        long start = System.nanoTime();
+        Collection<SavedHorse> horses = _file.load(getDBFile());
+        HorseDB.METRICS.recordTime(getType() + ".parse", start);
+        return horses;
     }
 
     // --------------------------------------------------------------------------
@@ -59,46 +56,58 @@ public class HorseDBImplWithYAML extends HorseDBImplWithFile {
      * @see nu.nerd.easyrider.db.IHorseDBImpl#saveAll(java.util.Collection)
      */
     @Override
-    public void saveAll(Collection<SavedHorse> collection) {
-        for (SavedHorse savedHorse : collection) {
-            try {
-                savedHorse.save(_config);
-            } catch (Exception ex) {
-                // Should not happen. Mitigate the damage.
-                EasyRider.PLUGIN.getLogger().severe("Failed to save horse " + savedHorse.getUuid() + ": " + ex.getMessage());
-            }
-        }
+    public void saveAll(Collection<SavedHorse> collection) throws IOException {
+        long start = System.nanoTime();
+        _file.save(collection);
+        HorseDB.METRICS.recordTime(getType() + ".serialise", start);
         writeToDisk();
     }
 
     // --------------------------------------------------------------------------
     /**
      * @see nu.nerd.easyrider.db.IHorseDBImpl#delete(java.util.Collection)
+     *
+     *      The whole file is rewritten, so nothing is written when there is
+     *      nothing to delete.
      */
     @Override
-    public void delete(Collection<SavedHorse> collection) {
-        for (SavedHorse savedHorse : collection) {
-            _config.set(savedHorse.getUuid().toString(), null);
+    public void delete(Collection<SavedHorse> collection) throws IOException {
+        if (collection.isEmpty()) {
+            return;
         }
+        _file.delete(collection);
         writeToDisk();
     }
 
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#close()
+     *
+     *      The YAML file is not held open, so there is nothing to do.
+     */
+    @Override
+    public void close() {
+    }
+
     // --------------------------------------------------------------------------
     /**
      * Write the YAML file to disk.
+     *
+     * @throws IOException if the file could not be written.
      */
-    protected void writeToDisk() {
+    protected void writeToDisk() throws IOException {
         try {
-            _config.save(getDBFile().toFile());
+            writeFile(getDBFile(), tempFile -> _file.write(getDBFile(), tempFile));
+            _file.written();
         } catch (IOException ex) {
-            EasyRider.PLUGIN.getLogger().severe("Unable to write YAML database: " + getDBFile().toString());
+            throw new IOException("Unable to write YAML database: " + getDBFile().toString(), ex);
         }
     }
 
     // --------------------------------------------------------------------------
     /**
-     * The YAML file containing the horses.
+     * The text of the horses in the YAML file.
      */
-    protected YamlConfiguration _config = new YamlConfiguration();
+    protected YAMLHorseFile _file = new YAMLHorseFile();
 
-} // class HorseDBImplWithYAML
\ No newline at end of file
+} // class HorseDBImplWithYAML
@@ -0,0 +1,359 @@
+package nu.nerd.easyrider.db;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+import nu.nerd.easyrider.EasyRider;
+
+// ----------------------------------------------------------------------------
+/**
+ * A background job that migrates a {@link HorseDB} to a new implementation.
+ *
+ * The job runs as a synchronous repeating task. Each tick, it copies the next
+ * chunk of horses in the main thread and queues the copies to be written to
+ * the new implementation in the database I/O thread. If the new
+ * implementation rewrites the whole database on every save (see
+ * {@link IHorseDBImpl#isIncremental()}), the copies are instead accumulated
+ * and written in a single save once all horses have been copied, so that the
+ * migration takes linear rather than quadratic time. When all copies have
+ * been written, horses that were changed, added or removed during the copy
+ * are written to the new implementation and the database switches to it in
+ * a single step in the main thread.
+ *
+ * If the job is abandoned, e.g. because the server is stopping or a write to
+ * the new implementation failed, the database continues to use the old
+ * implementation, and the migration can be started again from the beginning.
+ */
+class HorseDBMigration implements Runnable {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param db the database to migrate.
+     * @param sender the command sender, to whom progress is reported.
+     * @param newImpl the new database implementation.
+     */
+    HorseDBMigration(HorseDB db, CommandSender sender, IHorseDBImpl newImpl) {
+        _db = db;
+        _sender = sender;
+        _newImpl = newImpl;
+        _uuids = new ArrayList<UUID>(db._cache.keySet());
+        _accumulated = newImpl.isIncremental() ? null : new ArrayList<SavedHorse>(_uuids.size());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the new database implementation.
+     *
+     * @return the new database implementation.
+     */
+    IHorseDBImpl getNewImpl() {
+        return _newImpl;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start the migration.
+     *
+     * Any existing contents of the new database are cleared first.
+     */
+    void start() {
+        _db._ioExecutor.execute(() -> {
+            try {
+                _newImpl.delete(_newImpl.loadAll());
+            } catch (IOException ex) {
+                _failure = ex.getMessage();
+            }
+        });
+        _taskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(EasyRider.PLUGIN, this, 1, 1);
+        _sender.sendMessage(ChatColor.GOLD + "Migrating " + _uuids.size() + " horses from " +
+                            _db._impl.getType() + " to " + _newImpl.getType() + " in the background.");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Abandon the migration, leaving the database using the old
+     * implementation.
+     *
+     * The new implementation is closed in the I/O thread, after any pending
+     * writes to it.
+     */
+    void abandon() {
+        Bukkit.getScheduler().cancelTask(_taskId);
+        _db._ioExecutor.execute(_newImpl::close);
+        _sender.sendMessage(ChatColor.RED + "Database migration to " + _newImpl.getType() +
+                            " abandoned. The database implementation is still " + _db._impl.getType() + ".");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Copy the next chunk of horses, or finish the migration once all copies
+     * have been written.
+     *
+     * The migration is abandoned if any write to the new implementation has
+     * failed.
+     *
+     * This method is called in the main thread every tick.
+     */
+    @Override
+    public void run() {
+        synchronized (_db) {
+            if (_failure != null) {
+                fail(_failure);
+                return;
+            }
+
+            reportProgress();
+            if (_next < _uuids.size()) {
+                copyNextChunk();
+            } else if (!_allQueued) {
+                _allQueued = true;
+                if (_accumulated != null) {
+                    writeAccumulated();
+                }
+                _db._ioExecutor.execute(() -> _allWritten = true);
+            } else if (_allWritten) {
+                Bukkit.getScheduler().cancelTask(_taskId);
+                _db.finishMigration(this);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Copy the next chunk of horses and queue the copies to be written to the
+     * new database.
+     *
+     * Copying pauses while more than two chunks are waiting to be written, to
+     * bound the memory used by copies. When copies are accumulated for a
+     * single save, they are counted as written once copied.
+     */
+    protected void copyNextChunk() {
+        if (_queued - _written > 2 * CHUNK_SIZE) {
+            return;
+        }
+
+        // The journal must record all changes up to the copies taken below.
+        _db._journal.commit();
+
+        ArrayList<SavedHorse> copies = new ArrayList<SavedHorse>(CHUNK_SIZE);
+        while (_next < _uuids.size() && copies.size() < CHUNK_SIZE) {
+            SavedHorse savedHorse = _db._cache.get(_uuids.get(_next++));
+            if (savedHorse != null) {
+                SavedHorse copy = copy(savedHorse);
+                if (copy != null) {
+                    copies.add(copy);
+                }
+            }
+        }
+
+        _queued += copies.size();
+        if (_accumulated != null) {
+            _accumulated.addAll(copies);
+            _written += copies.size();
+            return;
+        }
+
+        _db._ioExecutor.execute(() -> {
+            try {
+                _newImpl.saveAll(copies);
+                _written += copies.size();
+            } catch (IOException ex) {
+                _failure = ex.getMessage();
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Queue the accumulated copies of all horses to be written to the new
+     * database in a single save.
+     */
+    protected void writeAccumulated() {
+        ArrayList<SavedHorse> copies = _accumulated;
+        _accumulated = null;
+        _sender.sendMessage(ChatColor.GOLD + "Writing " + copies.size() + " horses to " + _newImpl.getType() + ".");
+        _db._ioExecutor.execute(() -> {
+            try {
+                _newImpl.saveAll(copies);
+            } catch (IOException ex) {
+                _failure = ex.getMessage();
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the horses that were changed, added or removed since they were
+     * copied to the new database.
+     *
+     * This method is called in the main thread when there are no pending
+     * writes, immediately before the database switches to the new
+     * implementation.
+     *
+     * @throws IOException if the changes could not be written.
+     */
+    void writeChanges() throws IOException {
+        ArrayList<SavedHorse> removed = new ArrayList<SavedHorse>();
+        ArrayList<SavedHorse> changed = new ArrayList<SavedHorse>();
+        for (Entry<SavedHorse, Long> entry : _copiedModCounts.entrySet()) {
+            SavedHorse savedHorse = entry.getKey();
+            if (_db._cache.get(savedHorse.getUuid()) != savedHorse) {
+                removed.add(savedHorse);
+            }
+        }
+
+        for (SavedHorse savedHorse : _db._cache.values()) {
+            Long modCount = _copiedModCounts.get(savedHorse);
+            if (modCount == null || modCount != savedHorse.getModCount()) {
+                SavedHorse copy = copy(savedHorse);
+                if (copy != null) {
+                    changed.add(copy);
+                }
+            }
+        }
+
+        // Delete first, in case a removed horse has been re-added.
+        _newImpl.delete(removed);
+        _newImpl.saveAll(changed);
+        _sender.sendMessage(ChatColor.GOLD + "Replayed " + changed.size() + " changed and " +
+                            removed.size() + " removed horses.");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Abandon the migration because a write to the new implementation failed.
+     *
+     * This method is called in the main thread with the database locked.
+     *
+     * @param reason the description of the failure.
+     */
+    void fail(String reason) {
+        _sender.sendMessage(ChatColor.RED + "Database migration to " + _newImpl.getType() + " failed: " + reason);
+        _db._migration = null;
+        abandon();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a copy of a horse to be written to the new database, recording
+     * its modification count at the time of the copy.
+     *
+     * @param savedHorse the horse.
+     * @return the copy, or null if it could not be copied.
+     */
+    protected SavedHorse copy(SavedHorse savedHorse) {
+        try {
+            SavedHorse copy = (SavedHorse) savedHorse.clone();
+            copy.setNew();
+            _copiedModCounts.put(savedHorse, savedHorse.getModCount());
+            return copy;
+        } catch (CloneNotSupportedException ex) {
+            // Should never happen.
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Tell the sender how many horses have been written, every 10 percent.
+     */
+    protected void reportProgress() {
+        int total = Math.max(1, _uuids.size());
+        int percent = (int) (100L * _written / total);
+        if (percent / 10 > _reportedPercent / 10) {
+            _reportedPercent = percent;
+            _sender.sendMessage(ChatColor.GOLD + "Database migration: " + _written + " of " +
+                                _uuids.size() + " horses copied (" + percent + "%).");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of horses copied per tick.
+     */
+    protected static final int CHUNK_SIZE = 500;
+
+    /**
+     * The database being migrated.
+     */
+    protected final HorseDB _db;
+
+    /**
+     * The command sender, to whom progress is reported.
+     */
+    protected final CommandSender _sender;
+
+    /**
+     * The new database implementation.
+     */
+    protected final IHorseDBImpl _newImpl;
+
+    /**
+     * The UUIDs of the horses in the database when the migration started, in
+     * copying order.
+     */
+    protected final ArrayList<UUID> _uuids;
+
+    /**
+     * Map from each copied horse to its modification count when it was
+     * copied.
+     */
+    protected final IdentityHashMap<SavedHorse, Long> _copiedModCounts = new IdentityHashMap<SavedHorse, Long>();
+
+    /**
+     * Copies of the horses to be written to the new database in a single save
+     * once all have been copied; null if the new implementation saves
+     * incrementally, or once the copies have been queued to be written.
+     */
+    protected ArrayList<SavedHorse> _accumulated;
+
+    /**
+     * Index into _uuids of the next horse to copy.
+     */
+    protected int _next;
+
+    /**
+     * Number of copies queued to be written.
+     */
+    protected int _queued;
+
+    /**
+     * Number of copies written; updated in the I/O thread.
+     */
+    protected volatile int _written;
+
+    /**
+     * The last reported percentage of horses written.
+     */
+    protected int _reportedPercent;
+
+    /**
+     * True once all copies have been queued to be written.
+     */
+    protected boolean _allQueued;
+
+    /**
+     * True once all copies have been written; set in the I/O thread.
+     */
+    protected volatile boolean _allWritten;
+
+    /**
+     * The description of the first failed write to the new implementation, or
+     * null if none has failed; set in the I/O thread.
+     */
+    protected volatile String _failure;
+
+    /**
+     * The ID of the repeating task that runs this job.
+     */
+    protected int _taskId;
+
+} // class HorseDBMigration
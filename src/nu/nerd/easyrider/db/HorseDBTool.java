@@ -0,0 +1,767 @@
+package nu.nerd.easyrider.db;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.configuration.serialization.ConfigurationSerializable;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+import nu.nerd.easyrider.EasyRider;
+
+// ----------------------------------------------------------------------------
+/**
+ * A standalone tool that reads the horse database of a stopped (or running)
+ * server and reports aggregate statistics or exports the horses for use by
+ * other tools.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java -cp EasyRider.jar:spigot-api.jar nu.nerd.easyrider.db.HorseDBTool \
+ *     &lt;plugin-dir&gt; owners|abandoned|levels|ndjson|csv|benchmark \
+ *     [--type &lt;implementation&gt;] [--output &lt;file&gt;] [--sizes &lt;n,...&gt;]
+ * </pre>
+ *
+ * The database is loaded exactly as the plugin would load it, using the
+ * plugin's configuration and database implementations, including replay of
+ * the journal and the contents of the cold store. Nothing is written to the
+ * plugin directory.
+ *
+ * The benchmark command instead times each database implementation against
+ * YAML with generated horses, in a scratch directory given in place of the
+ * plugin directory. It refuses to run in a directory that contains a horse
+ * database.
+ *
+ * Bukkit is not running, so the tool installs a minimal stand-in for the
+ * server that supplies a logger and a placeholder for each world named by a
+ * horse location. Item meta is not deserialised, so inventories are not
+ * reported.
+ */
+public class HorseDBTool {
+    // ------------------------------------------------------------------------
+    /**
+     * Main program.
+     *
+     * @param args command line arguments.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            usage();
+            return;
+        }
+
+        Path dataDir = Paths.get(args[0]);
+        String command = args[1];
+        String implType = null;
+        Path outputFile = null;
+        List<Integer> sizes = BENCHMARK_SIZES;
+        for (int i = 2; i < args.length; ++i) {
+            if (args[i].equals("--type") && i + 1 < args.length) {
+                implType = args[++i];
+            } else if (args[i].equals("--output") && i + 1 < args.length) {
+                outputFile = Paths.get(args[++i]);
+            } else if (args[i].equals("--sizes") && i + 1 < args.length) {
+                try {
+                    sizes = Arrays.stream(args[++i].split(",")).map(Integer::valueOf).collect(Collectors.toList());
+                } catch (NumberFormatException ex) {
+                    usage();
+                    return;
+                }
+            } else {
+                usage();
+                return;
+            }
+        }
+
+        if (!Files.isDirectory(dataDir)) {
+            System.err.println("Not a directory: " + dataDir);
+            System.exit(1);
+        }
+
+        HorseDBTool tool = new HorseDBTool();
+        tool.startOffline(dataDir);
+        boolean benchmark = command.equals("benchmark");
+        if (!benchmark) {
+            if (implType == null) {
+                implType = EasyRider.CONFIG.DATABASE_IMPLEMENTATION;
+            }
+            tool.load(implType);
+        }
+
+        try (PrintWriter out = (outputFile != null)
+            ? new PrintWriter(Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8))
+            : new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)))) {
+            switch (command) {
+            case "owners":
+                tool.reportOwners(out);
+                break;
+            case "abandoned":
+                tool.reportAbandoned(out);
+                break;
+            case "levels":
+                tool.reportLevels(out);
+                break;
+            case "ndjson":
+                tool.exportNDJSON(out);
+                break;
+            case "csv":
+                tool.exportCSV(out);
+                break;
+            case "benchmark":
+                tool.benchmark(out, implType, sizes);
+                break;
+            default:
+                usage();
+                break;
+            }
+        } catch (IOException ex) {
+            System.err.println("Unable to write " + outputFile + ": " + ex.getMessage());
+            System.exit(1);
+        }
+    } // main
+
+    // ------------------------------------------------------------------------
+    /**
+     * Print the command line usage to standard error.
+     */
+    protected static void usage() {
+        System.err.println("Usage: java -cp EasyRider.jar:spigot-api.jar " + HorseDBTool.class.getName() +
+                           " <plugin-dir> owners|abandoned|levels|ndjson|csv|benchmark [--type <implementation>] [--output <file>] [--sizes <n,...>]");
+        System.err.println("  owners    - number of horses per owner, most first.");
+        System.err.println("  abandoned - number of horses pending purge.");
+        System.err.println("  levels    - distribution of speed, jump and health levels.");
+        System.err.println("  ndjson    - export all horses as newline-delimited JSON.");
+        System.err.println("  csv       - export all horses as CSV.");
+        System.err.println("  benchmark - time each implementation (or --type) against yaml with generated");
+        System.err.println("              horses (default sizes " + BENCHMARK_SIZES.stream().map(String::valueOf).collect(Collectors.joining(",")) + "),");
+        System.err.println("              using <plugin-dir> as an empty scratch directory.");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Install a stand-in for the Bukkit server and an instance of the plugin
+     * whose data folder is the specified directory, then load the plugin's
+     * configuration.
+     *
+     * @param dataDir the plugin's data folder.
+     */
+    protected void startOffline(Path dataDir) {
+        Server server = (Server) Proxy.newProxyInstance(Server.class.getClassLoader(),
+                                                        new Class<?>[] { Server.class },
+                                                        (proxy, method, args) -> invokeServer(proxy, method, args));
+        Bukkit.setServer(server);
+        ConfigurationSerialization.registerClass(OfflineItemMeta.class, "ItemMeta");
+
+        @SuppressWarnings("deprecation")
+        JavaPluginLoader loader = new JavaPluginLoader(server);
+        PluginDescriptionFile description = new PluginDescriptionFile("EasyRider", "offline", EasyRider.class.getName());
+        EasyRider.PLUGIN = new EasyRider(loader, description, dataDir.toFile(), dataDir.resolve("EasyRider.jar").toFile());
+        EasyRider.CONFIG.reload();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load all horses from the database, as the plugin would on startup.
+     *
+     * Horses in the cold store are read in full.
+     *
+     * @param implType the database implementation type.
+     */
+    protected void load(String implType) {
+        // Read only the primary of a mirrored database; loading a mirror
+        // rewrites the secondary.
+        int plus = implType.indexOf('+');
+        if (plus >= 0) {
+            implType = implType.substring(0, plus);
+        }
+
+        HorseDB db = new HorseDB(implType);
+        db.load();
+
+        _horses = new ArrayList<SavedHorse>(db._cache.values());
+        for (SavedHorse summary : new ArrayList<SavedHorse>(db._coldStore.getSummaries())) {
+            SavedHorse savedHorse = db._coldStore.fault(summary.getUuid());
+            if (savedHorse != null) {
+                _horses.add(savedHorse);
+            }
+        }
+        _pendingPurgeHorses = new HashMap<UUID, SavedHorse>(db._removedHorses);
+
+        // Don't close the HorseDB; that would update the journal.
+        db._ioExecutor.shutdown();
+        db._impl.close();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Report the number of horses owned by each owner, most first.
+     *
+     * @param out the output.
+     */
+    protected void reportOwners(PrintWriter out) {
+        Map<UUID, Long> counts = _horses.parallelStream()
+        .filter(h -> h.getOwnerUuid() != null)
+        .collect(Collectors.groupingByConcurrent(SavedHorse::getOwnerUuid, Collectors.counting()));
+
+        out.println("horses\towner");
+        counts.entrySet().stream()
+        .sorted(Map.Entry.<UUID, Long> comparingByValue(Comparator.reverseOrder())
+        .thenComparing(Map.Entry.comparingByKey()))
+        .forEachOrdered(e -> out.println(e.getValue() + "\t" + e.getKey()));
+        out.println(_horses.size() - counts.values().stream().mapToLong(Long::longValue).sum() + "\t(untamed)");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Report the number of horses that the plugin would delete from the
+     * database on its next purge.
+     *
+     * @param out the output.
+     */
+    protected void reportAbandoned(PrintWriter out) {
+        long abandoned = _pendingPurgeHorses.values().parallelStream()
+        .filter(h -> h.getOwnerUuid() == null && h.isAbandoned())
+        .count();
+        long ownedAbandoned = _horses.parallelStream()
+        .filter(h -> h.getOwnerUuid() != null && h.isAbandoned())
+        .count();
+
+        out.println("Abandoned horses pending purge: " + abandoned);
+        out.println("Removed horses pending purge: " + (_pendingPurgeHorses.size() - abandoned));
+        out.println("Owned horses not accessed in " + EasyRider.CONFIG.ABANDONED_DAYS + " days: " + ownedAbandoned);
+        out.println("Total horses retained: " + _horses.size());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Report the number of trainable horses at each speed, jump and health
+     * level.
+     *
+     * @param out the output.
+     */
+    protected void reportLevels(PrintWriter out) {
+        TreeMap<Integer, Long> speed = countLevels(SavedHorse::getSpeedLevel);
+        TreeMap<Integer, Long> jump = countLevels(SavedHorse::getJumpLevel);
+        TreeMap<Integer, Long> health = countLevels(SavedHorse::getHealthLevel);
+        int maxLevel = Math.max(speed.isEmpty() ? 0 : speed.lastKey(),
+                                Math.max(jump.isEmpty() ? 0 : jump.lastKey(),
+                                         health.isEmpty() ? 0 : health.lastKey()));
+
+        out.println("level\tspeed\tjump\thealth");
+        for (int level = 1; level <= maxLevel; ++level) {
+            out.println(level + "\t" + speed.getOrDefault(level, 0L) + "\t" +
+                        jump.getOrDefault(level, 0L) + "\t" + health.getOrDefault(level, 0L));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count the trainable horses at each level of an ability.
+     *
+     * @param getLevel returns the level of the ability.
+     * @return map from level to number of horses.
+     */
+    protected TreeMap<Integer, Long> countLevels(ToIntFunction<SavedHorse> getLevel) {
+        Map<Integer, Long> counts = _horses.parallelStream()
+        .filter(SavedHorse::isTrainable)
+        .collect(Collectors.groupingByConcurrent(h -> getLevel.applyAsInt(h), Collectors.counting()));
+        return new TreeMap<Integer, Long>(counts);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Export all horses, including those pending purge, as one JSON object
+     * per line.
+     *
+     * Lines are formatted in parallel and written in UUID order.
+     *
+     * @param out the output.
+     */
+    protected void exportNDJSON(PrintWriter out) {
+        getAllHorsesSorted().parallelStream()
+        .map(h -> {
+            StringBuilder line = new StringBuilder("{");
+            Object[] values = getExportValues(h);
+            for (int i = 0; i < EXPORT_COLUMNS.length; ++i) {
+                if (i != 0) {
+                    line.append(',');
+                }
+                line.append('"').append(EXPORT_COLUMNS[i]).append("\":");
+                Object value = values[i];
+                if (value == null || value instanceof Number || value instanceof Boolean) {
+                    line.append(value);
+                } else {
+                    line.append(quoteJSON(value.toString()));
+                }
+            }
+            return line.append('}').toString();
+        })
+        .forEachOrdered(out::println);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Export all horses, including those pending purge, as CSV with a header
+     * line.
+     *
+     * Lines are formatted in parallel and written in UUID order.
+     *
+     * @param out the output.
+     */
+    protected void exportCSV(PrintWriter out) {
+        out.println(String.join(",", EXPORT_COLUMNS));
+        getAllHorsesSorted().parallelStream()
+        .map(h -> {
+            StringBuilder line = new StringBuilder();
+            Object[] values = getExportValues(h);
+            for (int i = 0; i < values.length; ++i) {
+                if (i != 0) {
+                    line.append(',');
+                }
+                if (values[i] != null) {
+                    line.append(quoteCSV(values[i].toString()));
+                }
+            }
+            return line.toString();
+        })
+        .forEachOrdered(out::println);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Time the save, update and load of generated horses by database
+     * implementations, and report the times and file sizes as a table.
+     *
+     * Each implementation first saves all horses as new, then saves changes
+     * to one percent of them, as a flush would, and finally a new instance
+     * loads them all, as on startup. The files of each implementation are
+     * deleted after it is timed.
+     *
+     * @param out the output.
+     * @param implType the implementation to compare with YAML, or null to
+     *        compare all implementations.
+     * @param sizes the numbers of horses to generate.
+     * @throws IOException if the files of an implementation cannot be
+     *         deleted.
+     */
+    protected void benchmark(PrintWriter out, String implType, List<Integer> sizes) throws IOException {
+        List<String> types = (implType == null) ? BENCHMARK_TYPES
+                                                : Arrays.asList("yaml", implType).stream().distinct().collect(Collectors.toList());
+        for (String type : types) {
+            IHorseDBImpl impl = HorseDB.makeHorseDBImpl(type);
+            if (!(impl instanceof HorseDBImplWithFile)) {
+                System.err.println("Cannot benchmark database implementation: " + type);
+                return;
+            }
+            if (Files.exists(((HorseDBImplWithFile) impl).getDBFile())) {
+                System.err.println("Not a scratch directory: " + ((HorseDBImplWithFile) impl).getDBFile() + " exists");
+                return;
+            }
+        }
+
+        out.println("type\thorses\tsave ms\tupdate ms\tload ms\tbytes");
+        for (int size : sizes) {
+            List<SavedHorse> horses = generateHorses(size);
+            for (String type : types) {
+                HorseDBImplWithFile impl = (HorseDBImplWithFile) HorseDB.makeHorseDBImpl(type);
+                try {
+                    for (SavedHorse savedHorse : horses) {
+                        savedHorse.setNew();
+                    }
+                    System.gc();
+                    long start = System.nanoTime();
+                    impl.saveAll(horses);
+                    double saveMillis = 1e-6 * (System.nanoTime() - start);
+
+                    ArrayList<SavedHorse> updated = new ArrayList<SavedHorse>();
+                    for (int i = 0; i < horses.size(); i += 100) {
+                        SavedHorse savedHorse = horses.get(i);
+                        savedHorse.setDistanceTravelled(savedHorse.getDistanceTravelled() + 1);
+                        updated.add(savedHorse);
+                    }
+                    start = System.nanoTime();
+                    impl.saveAll(updated);
+                    double updateMillis = 1e-6 * (System.nanoTime() - start);
+                    impl.close();
+
+                    long bytes = 0;
+                    for (Path file : impl.getDBFiles()) {
+                        if (Files.exists(file)) {
+                            bytes += Files.size(file);
+                        }
+                    }
+
+                    IHorseDBImpl loader = HorseDB.makeHorseDBImpl(type);
+                    System.gc();
+                    start = System.nanoTime();
+                    int loaded = loader.loadAll().size();
+                    double loadMillis = 1e-6 * (System.nanoTime() - start);
+                    loader.close();
+                    if (loaded != size) {
+                        throw new IOException("loaded " + loaded + " of " + size + " horses");
+                    }
+
+                    out.println(type + "\t" + size + "\t" + String.format("%.0f\t%.0f\t%.0f", saveMillis, updateMillis, loadMillis) +
+                                "\t" + bytes);
+                } catch (Exception ex) {
+                    out.println(type + "\t" + size + "\tfailed: " + ex.getMessage());
+                } finally {
+                    impl.close();
+                    deleteDBFiles(impl);
+                }
+                out.flush();
+            }
+        }
+    } // benchmark
+
+    // ------------------------------------------------------------------------
+    /**
+     * Generate horses with plausible, repeatable attributes for benchmarks.
+     *
+     * Horses are owned by one player for every 20 horses, and have no
+     * inventories, since items cannot be serialised without the server.
+     *
+     * @param count the number of horses.
+     * @return the horses.
+     */
+    protected static List<SavedHorse> generateHorses(int count) {
+        Random random = new Random(count);
+        UUID[] owners = new UUID[Math.max(1, count / 20)];
+        for (int i = 0; i < owners.length; ++i) {
+            owners[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+
+        long now = System.currentTimeMillis();
+        ArrayList<SavedHorse> horses = new ArrayList<SavedHorse>(count);
+        for (int i = 0; i < count; ++i) {
+            SavedHorse savedHorse = new SavedHorse();
+            savedHorse.setUuid(new UUID(random.nextLong(), random.nextLong()));
+            savedHorse.setOwnerUuid(owners[random.nextInt(owners.length)]);
+            savedHorse.setLastTamed(now - random.nextInt(Integer.MAX_VALUE));
+            savedHorse.setName("Horse");
+            if (random.nextBoolean()) {
+                savedHorse.setDisplayName("Horse " + i);
+            }
+            savedHorse.setAppearance(BENCHMARK_APPEARANCES[random.nextInt(BENCHMARK_APPEARANCES.length)]);
+            savedHorse.setLocation("world", random.nextInt(20000) - 10000.5, 64, random.nextInt(20000) - 10000.5);
+            savedHorse.setEquipment(random.nextInt(16));
+            savedHorse.setDistanceTravelled(random.nextDouble() * 100000);
+            savedHorse.setDistanceJumped(random.nextDouble() * 1000);
+            savedHorse.setNuggetsEaten(random.nextInt(1000));
+            savedHorse.setSpeedLevel(1 + random.nextInt(30));
+            savedHorse.setJumpLevel(1 + random.nextInt(30));
+            savedHorse.setHealthLevel(1 + random.nextInt(30));
+            savedHorse.setHydration(random.nextDouble());
+            savedHorse.setLastAccessed(now - random.nextInt(Integer.MAX_VALUE));
+            savedHorse.setLastObserved(now - random.nextInt(Integer.MAX_VALUE));
+            horses.add(savedHorse);
+        }
+        return horses;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Delete the files of a database implementation written by a benchmark.
+     *
+     * @param impl the implementation.
+     * @throws IOException if a file cannot be deleted.
+     */
+    protected static void deleteDBFiles(HorseDBImplWithFile impl) throws IOException {
+        for (Path file : impl.getDBFiles()) {
+            Files.deleteIfExists(file);
+            // SQLite's write-ahead log and shared memory index.
+            Files.deleteIfExists(Paths.get(file + "-wal"));
+            Files.deleteIfExists(Paths.get(file + "-shm"));
+        }
+        Files.deleteIfExists(impl.getDBFile());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return all horses, including those pending purge, sorted by UUID.
+     *
+     * @return all horses, sorted by UUID.
+     */
+    protected List<SavedHorse> getAllHorsesSorted() {
+        ArrayList<SavedHorse> horses = new ArrayList<SavedHorse>(_horses);
+        horses.addAll(_pendingPurgeHorses.values());
+        horses.sort(Comparator.comparing(SavedHorse::getUuid));
+        return horses;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the values of the {@link #EXPORT_COLUMNS} of a horse.
+     *
+     * @param savedHorse the horse.
+     * @return the values, of which null values are absent.
+     */
+    protected Object[] getExportValues(SavedHorse savedHorse) {
+        return new Object[] {
+            savedHorse.getUuid(),
+            savedHorse.getOwnerUuid(),
+            savedHorse.getName(),
+            savedHorse.getDisplayName(),
+            savedHorse.getAppearance(),
+            savedHorse.getWorldName(),
+            savedHorse.hasLocation() ? savedHorse.getX() : null,
+            savedHorse.hasLocation() ? savedHorse.getY() : null,
+            savedHorse.hasLocation() ? savedHorse.getZ() : null,
+            savedHorse.getEquipment(),
+            savedHorse.getDistanceTravelled(),
+            savedHorse.getDistanceJumped(),
+            savedHorse.getNuggetsEaten(),
+            savedHorse.getSpeedLevel(),
+            savedHorse.getJumpLevel(),
+            savedHorse.getHealthLevel(),
+            savedHorse.getHydration(),
+            savedHorse.getLastAccessed(),
+            savedHorse.getLastObserved(),
+            savedHorse.getLastTamed(),
+            _pendingPurgeHorses.containsKey(savedHorse.getUuid())
+        };
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the specified string as a quoted JSON string.
+     *
+     * @param s the string.
+     * @return the JSON string.
+     */
+    protected static String quoteJSON(String s) {
+        StringBuilder result = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the specified string as a CSV field, quoted if necessary.
+     *
+     * @param s the string.
+     * @return the CSV field.
+     */
+    protected static String quoteCSV(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            return s;
+        }
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle a call to the stand-in for the Bukkit server.
+     *
+     * Worlds are looked up by name as placeholders; other methods return null,
+     * false or zero.
+     *
+     * @param proxy the stand-in.
+     * @param method the called method.
+     * @param args the arguments.
+     * @return the result.
+     */
+    protected static Object invokeServer(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "getLogger":
+            return LOGGER;
+        case "getName":
+            return "EasyRider offline tool";
+        case "getVersion":
+        case "getBukkitVersion":
+            return "offline";
+        case "getWorld":
+            return (args[0] instanceof String) ? getOfflineWorld((String) args[0]) : null;
+        default:
+            return invokeDefault(proxy, method, args);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the placeholder for the world with the specified name.
+     *
+     * Placeholders are cached, so that locations in the same world compare
+     * equal.
+     *
+     * @param name the world name.
+     * @return the placeholder, which only implements getName().
+     */
+    protected static World getOfflineWorld(String name) {
+        return WORLDS.computeIfAbsent(name, n -> (World) Proxy.newProxyInstance(World.class.getClassLoader(),
+                                                                                new Class<?>[] { World.class },
+                                                                                (proxy, method, args) -> method.getName().equals("getName") ? n : invokeDefault(proxy, method, args)));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle the Object methods of a stand-in and return a default value for
+     * all other methods.
+     *
+     * @param proxy the stand-in.
+     * @param method the called method.
+     * @param args the arguments.
+     * @return the result.
+     */
+    protected static Object invokeDefault(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "equals":
+            return proxy == args[0];
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "toString":
+            return method.getDeclaringClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+        default:
+            Class<?> type = method.getReturnType();
+            return type.isPrimitive() ? PRIMITIVE_DEFAULTS.get(type) : null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Placeholder for serialised item meta, which cannot be deserialised
+     * without the server implementation.
+     *
+     * ItemStacks ignore meta of this type, so that horses with customised
+     * items in their inventories can still be loaded.
+     */
+    public static class OfflineItemMeta implements ConfigurationSerializable {
+        // --------------------------------------------------------------------
+        /**
+         * Deserialise the item meta.
+         *
+         * @param map the serialised item meta.
+         * @return the placeholder.
+         */
+        public static OfflineItemMeta deserialize(Map<String, Object> map) {
+            return new OfflineItemMeta(map);
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Constructor.
+         *
+         * @param map the serialised item meta.
+         */
+        protected OfflineItemMeta(Map<String, Object> map) {
+            _map = map;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * @see org.bukkit.configuration.serialization.ConfigurationSerializable#serialize()
+         */
+        @Override
+        public Map<String, Object> serialize() {
+            return _map;
+        }
+
+        /**
+         * The serialised item meta.
+         */
+        protected final Map<String, Object> _map;
+    } // class OfflineItemMeta
+
+    // ------------------------------------------------------------------------
+    /**
+     * Names of the exported columns.
+     */
+    protected static final String[] EXPORT_COLUMNS = {
+        "uuid", "ownerUuid", "name", "displayName", "appearance",
+        "world", "x", "y", "z", "equipment",
+        "distanceTravelled", "distanceJumped", "nuggetsEaten",
+        "speedLevel", "jumpLevel", "healthLevel", "hydration",
+        "lastAccessed", "lastObserved", "lastTamed", "pendingPurge"
+    };
+
+    /**
+     * Default numbers of horses generated by the benchmark.
+     */
+    protected static final List<Integer> BENCHMARK_SIZES = Arrays.asList(10000, 100000, 1000000);
+
+    /**
+     * Implementations timed by the benchmark, starting with the YAML baseline.
+     */
+    protected static final List<String> BENCHMARK_TYPES = Arrays.asList("yaml", "sharded-yaml", "sqlite", "binary");
+
+    /**
+     * Appearances given to generated horses.
+     */
+    protected static final String[] BENCHMARK_APPEARANCES = {
+        "white horse", "creamy horse with white socks", "chestnut horse with white field",
+        "brown horse with white dots", "black horse", "gray horse with black dots",
+        "dark brown horse", "donkey", "mule", "creamy llama"
+    };
+
+    /**
+     * Logger of the stand-in for the server, which logs to standard error.
+     */
+    protected static final Logger LOGGER = Logger.getLogger("EasyRider");
+
+    /**
+     * Map from world name to placeholder.
+     */
+    protected static final ConcurrentHashMap<String, World> WORLDS = new ConcurrentHashMap<String, World>();
+
+    /**
+     * Map from primitive type to the default value returned by stand-ins.
+     */
+    protected static final HashMap<Class<?>, Object> PRIMITIVE_DEFAULTS = new HashMap<Class<?>, Object>();
+    static {
+        PRIMITIVE_DEFAULTS.put(boolean.class, false);
+        PRIMITIVE_DEFAULTS.put(char.class, '\0');
+        PRIMITIVE_DEFAULTS.put(byte.class, (byte) 0);
+        PRIMITIVE_DEFAULTS.put(short.class, (short) 0);
+        PRIMITIVE_DEFAULTS.put(int.class, 0);
+        PRIMITIVE_DEFAULTS.put(long.class, 0L);
+        PRIMITIVE_DEFAULTS.put(float.class, 0.0f);
+        PRIMITIVE_DEFAULTS.put(double.class, 0.0);
+    }
+
+    /**
+     * Horses retained in the database, including those in the cold store.
+     */
+    protected ArrayList<SavedHorse> _horses;
+
+    /**
+     * Map from UUID to horses that the plugin would delete from the database
+     * on its next purge.
+     */
+    protected HashMap<UUID, SavedHorse> _pendingPurgeHorses;
+
+} // class HorseDBTool
@@ -0,0 +1,422 @@
+package nu.nerd.easyrider.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+
+import nu.nerd.easyrider.EasyRider;
+import nu.nerd.easyrider.Util;
+
+// ----------------------------------------------------------------------------
+/**
+ * An append-only journal of changes to {@link SavedHorse}s, kept alongside the
+ * database.
+ *
+ * Changed fields of horses are accumulated in the main thread and, when
+ * {@link #commit()} is called, encoded as compact binary records that are
+ * appended to the journal file (and synced) in the database I/O thread. On
+ * the next start, the journal is replayed over the database to recover changes
+ * that had not been written to the database. Once all changes have been
+ * written to the database, the journal is truncated.
+ *
+ * While the database is written in partial flushes, the journal may never be
+ * truncated, so once it exceeds {@link #COMPACTION_MIN_LENGTH}, it is
+ * compacted after each successful partial flush: the file is replaced by a
+ * single record of all fields of each horse whose changes have not yet been
+ * written to the database.
+ *
+ * Each record consists of a type byte, the horse UUID, the length of the
+ * payload, the payload and a CRC32 of all the preceding bytes of the record.
+ * The payload of a {@link #FIELDS} record is written by
+ * {@link SavedHorse#writeFields(DataOutputStream, int)}. A {@link #REMOVE}
+ * record has no payload. Replay stops at the first incomplete or corrupt
+ * record, as would be left by a crash part way through an append.
+ */
+public class HorseJournal {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param file the path to the journal file.
+     * @param ioExecutor the executor in which the file is written.
+     */
+    public HorseJournal(Path file, ExecutorService ioExecutor) {
+        _file = file;
+        _ioExecutor = ioExecutor;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replay the journal over the horses loaded from the database.
+     *
+     * This must be called before any changes are committed. Horses created or
+     * changed by the journal are marked dirty. Horses removed by the journal
+     * are moved from horses to removedHorses.
+     *
+     * @param horses map from UUID to horses loaded from the database; updated
+     *        in place.
+     * @param removedHorses map from UUID to horses that must be deleted from
+     *        the database; updated in place.
+     * @param coldStore the cold store; horses in it that are changed by the
+     *        journal are moved to horses, and those removed are discarded.
+     * @return the number of records replayed.
+     */
+    public int replay(Map<UUID, SavedHorse> horses, Map<UUID, SavedHorse> removedHorses, HorseColdStore coldStore) {
+        if (!Files.exists(_file)) {
+            return 0;
+        }
+
+        ByteBuffer journal;
+        try {
+            journal = ByteBuffer.wrap(Files.readAllBytes(_file));
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to read horse journal: " + ex.getMessage());
+            return 0;
+        }
+
+        int records = 0;
+        CRC32 crc = new CRC32();
+        while (journal.remaining() >= HEADER_LENGTH) {
+            int start = journal.position();
+            byte type = journal.get();
+            UUID uuid = new UUID(journal.getLong(), journal.getLong());
+            int payloadLength = journal.getInt();
+            if (payloadLength < 0 || journal.remaining() < payloadLength + 4) {
+                break;
+            }
+
+            crc.reset();
+            crc.update(journal.array(), start, HEADER_LENGTH + payloadLength);
+            journal.position(start + HEADER_LENGTH + payloadLength);
+            if ((int) crc.getValue() != journal.getInt()) {
+                break;
+            }
+
+            if (type == REMOVE) {
+                SavedHorse savedHorse = horses.remove(uuid);
+                if (savedHorse != null) {
+                    removedHorses.put(uuid, savedHorse);
+                }
+                coldStore.discard(uuid);
+            } else if (type == FIELDS) {
+                SavedHorse savedHorse = horses.get(uuid);
+                if (savedHorse == null && coldStore.contains(uuid)) {
+                    savedHorse = coldStore.fault(uuid);
+                    if (savedHorse != null) {
+                        horses.put(uuid, savedHorse);
+                    }
+                }
+                if (savedHorse == null) {
+                    savedHorse = new SavedHorse();
+                    savedHorse.setNew();
+                    savedHorse.setUuid(uuid);
+                    horses.put(uuid, savedHorse);
+                    removedHorses.remove(uuid);
+                }
+
+                ByteArrayInputStream payload = new ByteArrayInputStream(journal.array(),
+                                                                        start + HEADER_LENGTH, payloadLength);
+                try {
+                    savedHorse.readFields(new DataInputStream(payload));
+                } catch (Exception ex) {
+                    EasyRider.PLUGIN.getLogger().severe("Unable to replay journal record for horse " +
+                                                        uuid + ": " + ex.getMessage());
+                }
+            } else {
+                break;
+            }
+            ++records;
+        }
+
+        if (journal.hasRemaining()) {
+            EasyRider.PLUGIN.getLogger().warning("Ignored " + journal.remaining() +
+                                                 " bytes of incomplete or corrupt horse journal.");
+        }
+        return records;
+    } // replay
+
+    // ------------------------------------------------------------------------
+    /**
+     * Queue a horse whose fields have changed since they were last journalled.
+     *
+     * This is called by {@link SavedHorse#setDirty(int)} in the main thread.
+     *
+     * @param savedHorse the horse.
+     */
+    void addChangedHorse(SavedHorse savedHorse) {
+        _changedHorses.add(savedHorse);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the removal of a horse from the database.
+     *
+     * The record is appended to the file by the next {@link #commit()}.
+     *
+     * @param savedHorse the removed horse.
+     */
+    public void logRemove(SavedHorse savedHorse) {
+        // Any queued changes to this horse must precede its removal.
+        writeChanges();
+        writeRecord(_buffer, REMOVE, savedHorse.getUuid(), null);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Encode all changes made since the last commit and append them to the
+     * journal file in the I/O thread.
+     *
+     * This method must be called in the main thread.
+     */
+    public void commit() {
+        writeChanges();
+        if (_buffer.size() == 0) {
+            return;
+        }
+
+        byte[] records = _buffer.toByteArray();
+        _buffer.reset();
+        _ioExecutor.execute(() -> append(records));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the length of the journal file, as of the last time it was
+     * written in the I/O thread.
+     *
+     * @return the length in bytes.
+     */
+    public long getLength() {
+        return _length;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Encode a compacted journal: one record of all fields of each of the
+     * specified horses.
+     *
+     * This method must be called in the main thread, immediately after
+     * {@link #commit()}, so that the horses have no changes that are not
+     * already in the journal.
+     *
+     * @param horses the horses whose changes have not been written to the
+     *        database.
+     * @return the encoded records, to be passed to {@link #rewrite(byte[])}.
+     */
+    public byte[] encodeCompacted(Collection<SavedHorse> horses) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (SavedHorse savedHorse : horses) {
+            _payload.reset();
+            try {
+                savedHorse.writeFields(new DataOutputStream(_payload), SavedHorse.ALL_FIELDS);
+            } catch (IOException ex) {
+                // Should not happen when writing to memory.
+                continue;
+            }
+            writeRecord(records, FIELDS, savedHorse.getUuid(), _payload.toByteArray());
+        }
+        return records.toByteArray();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Atomically replace the contents of the journal file with the specified
+     * records.
+     *
+     * This must only be called in the I/O thread, once the database contains
+     * all changes in the journal other than those in the records.
+     *
+     * @param records records encoded by {@link #encodeCompacted(Collection)}.
+     */
+    public void rewrite(byte[] records) {
+        close();
+        try {
+            Util.writeAtomically(_file, tempFile -> Files.write(tempFile, records));
+            _length = records.length;
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to compact horse journal: " + ex.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Truncate the journal file.
+     *
+     * This must only be called once the database contains all changes in the
+     * journal, either in the I/O thread or when no writes are pending.
+     */
+    public void truncate() {
+        try {
+            if (_channel != null) {
+                _channel.truncate(0);
+                _channel.force(false);
+            } else {
+                Files.deleteIfExists(_file);
+            }
+            _length = 0;
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to truncate horse journal: " + ex.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Close the journal file.
+     *
+     * This must only be called when no writes are pending.
+     */
+    public void close() {
+        try {
+            if (_channel != null) {
+                _channel.close();
+                _channel = null;
+            }
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to close horse journal: " + ex.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Encode the changed fields of all queued horses into the buffer.
+     */
+    protected void writeChanges() {
+        for (SavedHorse savedHorse : _changedHorses) {
+            int fields = savedHorse.takeJournalFields();
+            if (fields != 0) {
+                _payload.reset();
+                try {
+                    savedHorse.writeFields(new DataOutputStream(_payload), fields);
+                } catch (IOException ex) {
+                    // Should not happen when writing to memory.
+                    continue;
+                }
+                writeRecord(_buffer, FIELDS, savedHorse.getUuid(), _payload.toByteArray());
+            }
+        }
+        _changedHorses.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Encode a record into a buffer.
+     *
+     * @param out the buffer.
+     * @param type the record type.
+     * @param uuid the horse UUID.
+     * @param payload the payload, or null if there is none.
+     */
+    protected static void writeRecord(ByteArrayOutputStream out, byte type, UUID uuid, byte[] payload) {
+        int payloadLength = (payload != null) ? payload.length : 0;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + payloadLength + 4);
+        record.put(type);
+        record.putLong(uuid.getMostSignificantBits());
+        record.putLong(uuid.getLeastSignificantBits());
+        record.putInt(payloadLength);
+        if (payload != null) {
+            record.put(payload);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        out.write(record.array(), 0, record.position());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append records to the journal file and sync it to the disk.
+     *
+     * This is called in the I/O thread.
+     *
+     * @param records the encoded records.
+     */
+    protected void append(byte[] records) {
+        try {
+            if (_channel == null) {
+                _channel = FileChannel.open(_file, StandardOpenOption.CREATE,
+                                            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                _length = _channel.size();
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(records);
+            while (buffer.hasRemaining()) {
+                _channel.write(buffer);
+            }
+            _channel.force(false);
+            _length += records.length;
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to append to horse journal: " + ex.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record type signifying changed fields of a horse.
+     */
+    protected static final byte FIELDS = 1;
+
+    /**
+     * Record type signifying the removal of a horse.
+     */
+    protected static final byte REMOVE = 2;
+
+    /**
+     * Length of the record header: type, UUID and payload length.
+     */
+    protected static final int HEADER_LENGTH = 1 + 16 + 4;
+
+    /**
+     * The length in bytes above which the journal is compacted after a
+     * partial flush.
+     */
+    public static final long COMPACTION_MIN_LENGTH = 1024 * 1024;
+
+    /**
+     * Path to the journal file.
+     */
+    protected final Path _file;
+
+    /**
+     * The executor in which the journal file is written.
+     */
+    protected final ExecutorService _ioExecutor;
+
+    /**
+     * The open journal file; only accessed in the I/O thread.
+     */
+    protected FileChannel _channel;
+
+    /**
+     * The length of the journal file; only written in the I/O thread.
+     */
+    protected volatile long _length;
+
+    /**
+     * Horses with fields changed since the last commit.
+     */
+    protected ArrayList<SavedHorse> _changedHorses = new ArrayList<SavedHorse>();
+
+    /**
+     * Records encoded since the last commit.
+     */
+    protected ByteArrayOutputStream _buffer = new ByteArrayOutputStream();
+
+    /**
+     * Reused buffer for encoding record payloads.
+     */
+    protected ByteArrayOutputStream _payload = new ByteArrayOutputStream();
+} // class HorseJournal
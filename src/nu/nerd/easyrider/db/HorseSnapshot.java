@@ -0,0 +1,61 @@
+package nu.nerd.easyrider.db;
+
+import java.util.Collections;
+import java.util.List;
+
+// --------------------------------------------------------------------------
+/**
+ * An immutable, versioned snapshot of the state of all horses, published by
+ * {@link HorseDB#publishSnapshot()}.
+ *
+ * A snapshot can be read in any thread without locking. Its horses are
+ * frozen copies that are shared with later snapshots for as long as the
+ * original horse is unchanged, so they must never be modified.
+ */
+public class HorseSnapshot {
+    // --------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param version the version number.
+     * @param horses the frozen copies of all horses; not copied.
+     */
+    HorseSnapshot(long version, List<SavedHorse> horses) {
+        _version = version;
+        _horses = Collections.unmodifiableList(horses);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the version number of this snapshot, which increases each time a
+     * changed snapshot is published.
+     *
+     * @return the version number.
+     */
+    public long getVersion() {
+        return _version;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the horses in this snapshot, in arbitrary order.
+     *
+     * @return an unmodifiable list of frozen copies of all horses, which must
+     *         not be modified.
+     */
+    public List<SavedHorse> getHorses() {
+        return _horses;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * The version number.
+     */
+    protected final long _version;
+
+    /**
+     * The frozen copies of all horses.
+     */
+    protected final List<SavedHorse> _horses;
+
+} // class HorseSnapshot
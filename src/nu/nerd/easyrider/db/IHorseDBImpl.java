@@ -1,5 +1,6 @@
 package nu.nerd.easyrider.db;
 
+import java.io.IOException;
 import java.util.Collection;
 
 // ----------------------------------------------------------------------------
@@ -15,9 +16,24 @@ public interface IHorseDBImpl {
      */
     public String getType();
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if {@link #saveAll(Collection)} writes only the horses
+     * passed to it, or false if every call rewrites the whole database.
+     *
+     * Callers writing many horses in batches, such as a migration, should make
+     * a single call when this is false, to avoid writing the database once per
+     * batch.
+     *
+     * @return true if saves are incremental.
+     */
+    public boolean isIncremental();
+
     // ------------------------------------------------------------------------
     /**
      * Back up the database if that is supported.
+     *
+     * This method is called in the database I/O thread.
      */
     public void backup();
 
@@ -26,10 +42,17 @@ public interface IHorseDBImpl {
      * Save all horses in the collection to the database.
      *
      * Horses will be inserted if {@link SavedHorse.isNew()}; otherwise updated.
+     * Horses in the database that are not in the collection are left as they
+     * are, so callers need only pass horses that are new or dirty.
+     *
+     * Horses may be marked clean as they are serialised, before they are
+     * written. If this method throws, the caller must not assume that any of
+     * the horses were written.
      *
      * @param collection the horses.
+     * @throws IOException if the horses could not be written.
      */
-    public void saveAll(Collection<SavedHorse> collection);
+    public void saveAll(Collection<SavedHorse> collection) throws IOException;
 
     // ------------------------------------------------------------------------
     /**
@@ -44,6 +67,17 @@ public interface IHorseDBImpl {
      * Delete all horses in the collection from the database.
      *
      * @param collection the horses.
+     * @throws IOException if the deletion could not be written.
+     */
+    public void delete(Collection<SavedHorse> collection) throws IOException;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Release any resources held by the implementation, such as database
+     * connections.
+     *
+     * The implementation may be used again after this, and will reacquire
+     * resources as necessary.
      */
-    public void delete(Collection<SavedHorse> collection);
+    public void close();
 } // interface IHorseDBImpl
\ No newline at end of file
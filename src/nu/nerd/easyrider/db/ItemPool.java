@@ -0,0 +1,109 @@
+package nu.nerd.easyrider.db;
+
+import java.util.HashMap;
+
+import org.bukkit.inventory.ItemStack;
+
+// --------------------------------------------------------------------------
+/**
+ * A reference counted pool of immutable, shared ItemStacks.
+ *
+ * Horse inventories tend to hold the same few stacks (saddles, carpets,
+ * chests of common blocks) over and over. Rather than each horse holding its
+ * own clones of those stacks, each distinct stack is held once in the pool
+ * and horses hold references to the shared instance. A stack is dropped from
+ * the pool when the last horse referencing it releases it. Only horses in the
+ * {@link HorseDB} cache hold references: they are acquired when a horse enters
+ * the cache and released when it leaves, so horses that are loaded and then
+ * discarded cannot leak entries.
+ *
+ * Stacks are keyed by {@link ItemStack#hashCode()} and compared with
+ * {@link ItemStack#equals(Object)}, which cover the type, amount, durability
+ * and item meta. Pooled stacks must never be modified.
+ *
+ * All methods are synchronized, since horses are loaded in parallel.
+ */
+class ItemPool {
+    // --------------------------------------------------------------------------
+    /**
+     * Return the shared instance of the specified stack, adding a copy of it
+     * to the pool if necessary, and increment its reference count.
+     *
+     * @param item the stack, which may be null.
+     * @return the shared instance, or null if the stack is null.
+     */
+    public synchronized ItemStack acquire(ItemStack item) {
+        if (item == null) {
+            return null;
+        }
+
+        Entry entry = _entries.get(item);
+        if (entry == null) {
+            entry = new Entry(item.clone());
+            _entries.put(entry.item, entry);
+        }
+        ++entry.references;
+        return entry.item;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Decrement the reference count of a shared stack, removing it from the
+     * pool when no longer referenced.
+     *
+     * @param item the shared instance returned by {@link #acquire(ItemStack)},
+     *        which may be null.
+     */
+    public synchronized void release(ItemStack item) {
+        if (item == null) {
+            return;
+        }
+
+        Entry entry = _entries.get(item);
+        if (entry != null && entry.item == item && --entry.references <= 0) {
+            _entries.remove(item);
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the number of distinct stacks in the pool.
+     *
+     * @return the number of distinct stacks in the pool.
+     */
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * A shared stack and the number of references to it.
+     */
+    protected static final class Entry {
+        /**
+         * Constructor.
+         *
+         * @param item the shared stack.
+         */
+        Entry(ItemStack item) {
+            this.item = item;
+        }
+
+        /**
+         * The shared stack.
+         */
+        final ItemStack item;
+
+        /**
+         * The number of references to the shared stack.
+         */
+        int references;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Map from stack to its pool entry.
+     */
+    protected HashMap<ItemStack, Entry> _entries = new HashMap<ItemStack, Entry>();
+
+} // class ItemPool
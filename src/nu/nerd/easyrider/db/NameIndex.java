@@ -0,0 +1,276 @@
+package nu.nerd.easyrider.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// --------------------------------------------------------------------------
+/**
+ * Index of horses by case-folded display name, both across all owners and
+ * per owner, supporting exact and prefix queries.
+ *
+ * Horses without a display name are not indexed. As with {@link OwnerIndex},
+ * each horse in the index holds a reference back to it, and
+ * SavedHorse.setDisplayName() and setOwnerUuid() remove the horse before the
+ * change and re-insert it afterwards.
+ *
+ * The maps are guarded by a read/write lock, so that queries in any thread
+ * only contend with changes to the index, not with each other.
+ */
+class NameIndex {
+    // --------------------------------------------------------------------------
+    /**
+     * Return the case-folded form of a display name or prefix used as a key.
+     *
+     * @param name the name.
+     * @return the key.
+     */
+    static String fold(String name) {
+        return name.toLowerCase();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Add the horse to the index and track subsequent changes to its display
+     * name and owner.
+     *
+     * @param savedHorse the database horse.
+     */
+    public void add(SavedHorse savedHorse) {
+        savedHorse.setNameIndex(this);
+        insert(savedHorse);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Remove the horse from the index and stop tracking changes to it.
+     *
+     * @param savedHorse the database horse.
+     */
+    public void remove(SavedHorse savedHorse) {
+        erase(savedHorse);
+        savedHorse.setNameIndex(null);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Remove all horses from the index.
+     *
+     * Back-references are not cleared, so this must only be used for horses
+     * that are themselves being discarded.
+     */
+    public void clear() {
+        _lock.writeLock().lock();
+        try {
+            _byName.clear();
+            _byOwner.clear();
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the horses whose display name matches the specified name, or
+     * begins with it.
+     *
+     * @param ownerUuid the UUID of the owner of the horses, or null to search
+     *        horses of all owners.
+     * @param name the case insensitive name or prefix.
+     * @param prefix if true, match names beginning with name; otherwise, match
+     *        name exactly.
+     * @return a new list of the matching horses, in order of name.
+     */
+    public List<SavedHorse> find(UUID ownerUuid, String name, boolean prefix) {
+        ArrayList<SavedHorse> matches = new ArrayList<SavedHorse>();
+        _lock.readLock().lock();
+        try {
+            for (TreeSet<SavedHorse> horses : select(ownerUuid, name, prefix)) {
+                matches.addAll(horses);
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+        return matches;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Add the distinct display names beginning with the specified prefix to a
+     * collection, for tab completion.
+     *
+     * @param names the collection to add to.
+     * @param ownerUuid the UUID of the owner of the horses, or null to search
+     *        horses of all owners.
+     * @param prefix the case insensitive prefix.
+     */
+    public void addNames(Collection<String> names, UUID ownerUuid, String prefix) {
+        _lock.readLock().lock();
+        try {
+            for (TreeSet<SavedHorse> horses : select(ownerUuid, prefix, true)) {
+                for (SavedHorse savedHorse : horses) {
+                    names.add(savedHorse.getDisplayName());
+                }
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Called by the horse before a change to its display name or owner.
+     *
+     * @param savedHorse the database horse.
+     */
+    void beginUpdate(SavedHorse savedHorse) {
+        erase(savedHorse);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Called by the horse after a change to its display name or owner.
+     *
+     * @param savedHorse the database horse.
+     */
+    void endUpdate(SavedHorse savedHorse) {
+        insert(savedHorse);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the sets of horses with matching names.
+     *
+     * The caller must hold the lock while using the result.
+     *
+     * @param ownerUuid the owner's UUID, or null for all owners.
+     * @param name the case insensitive name or prefix.
+     * @param prefix true for a prefix match; false for an exact match.
+     * @return the sets of horses, in order of name.
+     */
+    protected Collection<TreeSet<SavedHorse>> select(UUID ownerUuid, String name, boolean prefix) {
+        TreeMap<String, TreeSet<SavedHorse>> map = (ownerUuid == null) ? _byName : _byOwner.get(ownerUuid);
+        if (map == null) {
+            return Collections.emptyList();
+        }
+
+        String key = fold(name);
+        if (prefix) {
+            NavigableMap<String, TreeSet<SavedHorse>> range = map.subMap(key, true, key + Character.MAX_VALUE, false);
+            return range.values();
+        } else {
+            TreeSet<SavedHorse> horses = map.get(key);
+            return (horses == null) ? Collections.emptyList() : Collections.singletonList(horses);
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Insert the horse under its current display name, if it has one.
+     *
+     * @param savedHorse the database horse.
+     */
+    protected void insert(SavedHorse savedHorse) {
+        if (!savedHorse.hasDisplayName()) {
+            return;
+        }
+
+        String key = fold(savedHorse.getDisplayName());
+        _lock.writeLock().lock();
+        try {
+            insert(_byName, key, savedHorse);
+            if (savedHorse.getOwnerUuid() != null) {
+                insert(_byOwner.computeIfAbsent(savedHorse.getOwnerUuid(), k -> new TreeMap<String, TreeSet<SavedHorse>>()),
+                       key, savedHorse);
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Erase the horse from under its current display name, if it has one.
+     *
+     * @param savedHorse the database horse.
+     */
+    protected void erase(SavedHorse savedHorse) {
+        if (!savedHorse.hasDisplayName()) {
+            return;
+        }
+
+        String key = fold(savedHorse.getDisplayName());
+        UUID ownerUuid = savedHorse.getOwnerUuid();
+        _lock.writeLock().lock();
+        try {
+            erase(_byName, key, savedHorse);
+            if (ownerUuid != null) {
+                TreeMap<String, TreeSet<SavedHorse>> ownerMap = _byOwner.get(ownerUuid);
+                if (ownerMap != null) {
+                    erase(ownerMap, key, savedHorse);
+                    if (ownerMap.isEmpty()) {
+                        _byOwner.remove(ownerUuid);
+                    }
+                }
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Insert a horse into a map from name to horses.
+     *
+     * @param map the map.
+     * @param key the folded name.
+     * @param savedHorse the database horse.
+     */
+    protected static void insert(TreeMap<String, TreeSet<SavedHorse>> map, String key, SavedHorse savedHorse) {
+        map.computeIfAbsent(key, k -> new TreeSet<SavedHorse>((h1, h2) -> h1.getUuid().compareTo(h2.getUuid())))
+            .add(savedHorse);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Erase a horse from a map from name to horses.
+     *
+     * @param map the map.
+     * @param key the folded name.
+     * @param savedHorse the database horse.
+     */
+    protected static void erase(TreeMap<String, TreeSet<SavedHorse>> map, String key, SavedHorse savedHorse) {
+        TreeSet<SavedHorse> horses = map.get(key);
+        if (horses != null) {
+            horses.remove(savedHorse);
+            if (horses.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Map from folded display name to horses of all owners with that name.
+     */
+    protected TreeMap<String, TreeSet<SavedHorse>> _byName = new TreeMap<String, TreeSet<SavedHorse>>();
+
+    /**
+     * Map from owner UUID to a map from folded display name to that owner's
+     * horses with that name.
+     */
+    protected HashMap<UUID, TreeMap<String, TreeSet<SavedHorse>>> _byOwner = new HashMap<UUID, TreeMap<String, TreeSet<SavedHorse>>>();
+
+    /**
+     * Guards the maps.
+     */
+    protected final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+} // class NameIndex
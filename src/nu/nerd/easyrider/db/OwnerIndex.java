@@ -0,0 +1,158 @@
+package nu.nerd.easyrider.db;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// --------------------------------------------------------------------------
+/**
+ * Map from owner UUID to the horses owned by that player, kept in the order
+ * in which they are listed by commands.
+ *
+ * Each horse in the index holds a reference back to it, so that when a
+ * SavedHorse setter changes a field that determines the owner or the order,
+ * the horse is removed from its owner's set before the change and re-inserted
+ * afterwards. The sets are therefore never stale and never need to be sorted
+ * when read.
+ *
+ * Locking is striped by owner: each owner's set is guarded by its own
+ * monitor, and the map of sets is concurrent, so readers in other threads only
+ * contend with changes to the same owner's horses. Since a horse is removed
+ * from its set before its sort key changes, the comparator never reads a
+ * horse that is being modified. Sets are created and removed atomically with
+ * ConcurrentHashMap.compute(), so an owner's empty set does not outlive their
+ * last horse; a reader holding a set that has just been removed sees it empty.
+ */
+class OwnerIndex {
+    // --------------------------------------------------------------------------
+    /**
+     * The order in which a player's horses are listed: firstly by trainability
+     * (all trainable horses before llamas), then by tamed time stamp (longest
+     * tamed first) and finally, all else being equal (unlikely) by UUID.
+     */
+    static final Comparator<SavedHorse> DISPLAY_ORDER = (h1, h2) -> {
+        if (h1.isTrainable() == h2.isTrainable()) {
+            int tamedComparison = Long.compare(h1.getLastTamed(), h2.getLastTamed());
+            return (tamedComparison == 0) ? h1.getUuid().compareTo(h2.getUuid()) : tamedComparison;
+        } else {
+            return h1.isTrainable() ? -1 : 1;
+        }
+    };
+
+    // --------------------------------------------------------------------------
+    /**
+     * Add the horse to the index, under its current owner, if any, and track
+     * subsequent changes to its owner and ordering.
+     *
+     * @param savedHorse the database horse.
+     */
+    public void add(SavedHorse savedHorse) {
+        savedHorse.setOwnerIndex(this);
+        insert(savedHorse);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Remove the horse from the index and stop tracking changes to it.
+     *
+     * @param savedHorse the database horse.
+     */
+    public void remove(SavedHorse savedHorse) {
+        erase(savedHorse);
+        savedHorse.setOwnerIndex(null);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return a new list of the horses owned by the player with the specified
+     * UUID, in {@link #DISPLAY_ORDER}.
+     *
+     * @param ownerUuid the owning player's UUID.
+     * @return the horses, which may be empty but will never be null.
+     */
+    public ArrayList<SavedHorse> get(UUID ownerUuid) {
+        TreeSet<SavedHorse> horses = _owned.get(ownerUuid);
+        if (horses == null) {
+            return new ArrayList<SavedHorse>();
+        }
+        synchronized (horses) {
+            return new ArrayList<SavedHorse>(horses);
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Called by the horse before a change to its owner, trainability or tamed
+     * time stamp.
+     *
+     * @param savedHorse the database horse.
+     */
+    void beginUpdate(SavedHorse savedHorse) {
+        erase(savedHorse);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Called by the horse after a change to its owner, trainability or tamed
+     * time stamp.
+     *
+     * @param savedHorse the database horse.
+     */
+    void endUpdate(SavedHorse savedHorse) {
+        insert(savedHorse);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Insert the horse into the set of its current owner, if owned.
+     *
+     * @param savedHorse the database horse.
+     */
+    protected void insert(SavedHorse savedHorse) {
+        UUID ownerUuid = savedHorse.getOwnerUuid();
+        if (ownerUuid != null) {
+            _owned.compute(ownerUuid, (k, horses) -> {
+                if (horses == null) {
+                    horses = new TreeSet<SavedHorse>(DISPLAY_ORDER);
+                }
+                synchronized (horses) {
+                    horses.add(savedHorse);
+                }
+                return horses;
+            });
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Erase the horse from the set of its current owner, if owned.
+     *
+     * The set is located using the horse's current sort key, which is the key
+     * it was inserted with, since all changes to the key are bracketed by
+     * {@link #beginUpdate(SavedHorse)} and {@link #endUpdate(SavedHorse)}.
+     *
+     * @param savedHorse the database horse.
+     */
+    protected void erase(SavedHorse savedHorse) {
+        UUID ownerUuid = savedHorse.getOwnerUuid();
+        if (ownerUuid != null) {
+            _owned.computeIfPresent(ownerUuid, (k, horses) -> {
+                synchronized (horses) {
+                    horses.remove(savedHorse);
+                    return horses.isEmpty() ? null : horses;
+                }
+            });
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Map from owner UUID to the set of horses owned by that player, in
+     * {@link #DISPLAY_ORDER}. Each set is accessed only while holding its
+     * monitor.
+     */
+    protected ConcurrentHashMap<UUID, TreeSet<SavedHorse>> _owned = new ConcurrentHashMap<UUID, TreeSet<SavedHorse>>();
+
+} // class OwnerIndex
@@ -1,10 +1,16 @@
 package nu.nerd.easyrider.db;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -13,9 +19,12 @@ import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.Sound;
+import org.bukkit.World;
 import org.bukkit.attribute.Attribute;
 import org.bukkit.attribute.AttributeInstance;
 import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.AbstractHorse;
 import org.bukkit.entity.AnimalTamer;
 import org.bukkit.entity.Player;
@@ -78,15 +87,29 @@ public class SavedHorse implements Cloneable {
     /**
      * @see Object#clone()
      *
-     *      SavedHorse is a POD type, so cloning is trivial. The Location is
-     *      assumed to not be mutated, and to be a new clone of the Entity's
-     *      Location whenever it is set.
+     *      The location is held as primitive fields, so it is copied. The set
+     *      of permitted players is copied so that the clone can be serialised
+     *      in another thread while this instance continues to be modified in
+     *      the main thread. The observed inventory is shared, since it is an
+     *      immutable list of immutable, pooled items, as is an inventory that
+     *      has not been deserialised. The copy does not hold references to
+     *      items in the pool.
      *
      * @throws CloneNotSupportedException
      */
     @Override
     public Object clone() throws CloneNotSupportedException {
-        return super.clone();
+        SavedHorse copy = (SavedHorse) super.clone();
+        copy.permittedPlayers = new HashSet<UUID>(permittedPlayers);
+        copy._pooled = false;
+
+        // Changes to the copy are not journalled.
+        copy._journal = null;
+        copy._journalFields = 0;
+        copy._ownerIndex = null;
+        copy._nameIndex = null;
+        copy._chunkIndex = null;
+        return copy;
     }
 
     // ------------------------------------------------------------------------
@@ -146,6 +169,98 @@ public class SavedHorse implements Cloneable {
      */
     public void setDirty() {
         _dirty = true;
+        ++_modCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of times this bean has been changed.
+     *
+     * Unlike {@link #isDirty()}, this is not reset when the bean is saved, so
+     * it can be used to detect changes made since a copy was taken.
+     *
+     * @return the number of times this bean has been changed.
+     */
+    long getModCount() {
+        return _modCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Signify that this bean has unsaved changes to the specified fields, and
+     * queue those changes to be appended to the journal, if any.
+     *
+     * @param fields a bitwise OR of the field constants of the changed fields.
+     */
+    protected void setDirty(int fields) {
+        setDirty();
+        if (_journalFields == 0 && _journal != null) {
+            _journal.addChangedHorse(this);
+        }
+        _journalFields |= fields;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the journal that records changes to this horse.
+     *
+     * New horses are queued to have all of their fields journalled; existing
+     * horses only journal subsequent changes.
+     *
+     * @param journal the journal, or null to stop journalling.
+     */
+    void setJournal(HorseJournal journal) {
+        _journal = journal;
+        _journalFields = 0;
+        if (journal != null && isNew()) {
+            setDirty(ALL_FIELDS);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the owner index that must be updated when the owner, trainability
+     * or tamed time stamp of this horse changes.
+     *
+     * @param ownerIndex the index, or null if not indexed.
+     */
+    void setOwnerIndex(OwnerIndex ownerIndex) {
+        _ownerIndex = ownerIndex;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the name index that must be updated when the display name or owner
+     * of this horse changes.
+     *
+     * @param nameIndex the index, or null if not indexed.
+     */
+    void setNameIndex(NameIndex nameIndex) {
+        _nameIndex = nameIndex;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the chunk index that must be updated when the location of this horse
+     * changes.
+     *
+     * @param chunkIndex the index, or null if not indexed.
+     */
+    void setChunkIndex(ChunkIndex chunkIndex) {
+        _chunkIndex = chunkIndex;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return and reset the set of fields changed since they were last
+     * journalled.
+     *
+     * @return a bitwise OR of the field constants of the changed fields.
+     */
+    int takeJournalFields() {
+        int fields = _journalFields;
+        _journalFields = 0;
+        return fields;
     }
 
     // ------------------------------------------------------------------------
@@ -218,32 +333,33 @@ public class SavedHorse implements Cloneable {
      * @param ownerUuid the owning player's UUID, or null if not owned.
      */
     public void setOwnerUuid(UUID ownerUuid) {
-        // Minimise setDirty() calls.
+        // Minimise setDirty() calls and reindexing.
         if (this.ownerUuid == null) {
             if (ownerUuid == null) {
                 // Not tamed; owner unchanged.
                 return;
-            } else {
-                lastTamed = System.currentTimeMillis();
-            }
-        } else {
-            // this.ownerUuid != null
-            if (this.ownerUuid.equals(ownerUuid)) {
-                // Tamed; owner unchanged.
-                return;
-            } else {
-                if (ownerUuid == null) {
-                    // Untamed.
-                    lastTamed = 0;
-                } else {
-                    // Change of ownership.
-                    lastTamed = System.currentTimeMillis();
-                }
             }
+        } else if (this.ownerUuid.equals(ownerUuid)) {
+            // Tamed; owner unchanged.
+            return;
         }
 
+        if (_ownerIndex != null) {
+            _ownerIndex.beginUpdate(this);
+        }
+        if (_nameIndex != null) {
+            _nameIndex.beginUpdate(this);
+        }
+        // Untamed, or tamed by a new owner.
+        lastTamed = (ownerUuid == null) ? 0 : System.currentTimeMillis();
         this.ownerUuid = ownerUuid;
-        setDirty();
+        setDirty(OWNER_UUID | LAST_TAMED);
+        if (_ownerIndex != null) {
+            _ownerIndex.endUpdate(this);
+        }
+        if (_nameIndex != null) {
+            _nameIndex.endUpdate(this);
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -282,7 +398,7 @@ public class SavedHorse implements Cloneable {
      */
     public void setName(String name) {
         this.name = name;
-        setDirty();
+        setDirty(NAME);
     }
 
     // ------------------------------------------------------------------------
@@ -303,8 +419,17 @@ public class SavedHorse implements Cloneable {
      * @param displayName the displayed custom name of the horse.
      */
     public void setDisplayName(String displayName) {
-        this.displayName = (displayName == null ? "" : displayName);
-        setDirty();
+        String newDisplayName = (displayName == null ? "" : displayName);
+        if (!newDisplayName.equals(this.displayName)) {
+            if (_nameIndex != null) {
+                _nameIndex.beginUpdate(this);
+            }
+            this.displayName = newDisplayName;
+            setDirty(DISPLAY_NAME);
+            if (_nameIndex != null) {
+                _nameIndex.endUpdate(this);
+            }
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -359,8 +484,10 @@ public class SavedHorse implements Cloneable {
      *        and variant.
      */
     public void setAppearance(String appearance) {
-        this.appearance = appearance;
-        setDirty();
+        if (!Objects.equals(this.appearance, appearance)) {
+            this.appearance = appearance;
+            setDirty(APPEARANCE);
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -379,7 +506,7 @@ public class SavedHorse implements Cloneable {
      */
     public void setEquipment(int equipment) {
         this.equipment = equipment;
-        setDirty();
+        setDirty(EQUIPMENT);
     }
 
     // ------------------------------------------------------------------------
@@ -394,21 +521,126 @@ public class SavedHorse implements Cloneable {
     /**
      * Set the most recent location of the horse.
      *
-     * @param location the location.
+     * Only the world and coordinates are kept; the yaw and pitch are
+     * discarded.
+     *
+     * @param location the location, or null if not known.
      */
     public void setLocation(Location location) {
-        this.location = location;
-        setDirty();
+        if (location != null && location.getWorld() != null) {
+            setLocation(location.getWorld().getName(), location.getX(), location.getY(), location.getZ());
+        } else {
+            setLocation(null, 0, 0, 0);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the most recent location of the horse by world name and
+     * coordinates.
+     *
+     * This method does not call the Bukkit API, so that it can be used to
+     * load horses in other threads, whether or not the world is loaded.
+     *
+     * @param worldName the name of the world, or null if the location is not
+     *        known.
+     * @param x the X coordinate.
+     * @param y the Y coordinate.
+     * @param z the Z coordinate.
+     */
+    public void setLocation(String worldName, double x, double y, double z) {
+        int oldWorldIndex = this.worldIndex;
+        double oldX = this.x;
+        double oldZ = this.z;
+        this.worldIndex = (worldName != null) ? WorldNames.indexOf(worldName) : -1;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        setDirty(LOCATION);
+        if (_chunkIndex != null) {
+            _chunkIndex.moved(this, oldWorldIndex, oldX, oldZ);
+        }
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Return the most recent location of the horse, or null if not known.
+     * Return the most recent location of the horse, or null if not known or
+     * if its world is not loaded.
+     *
+     * A new Location is returned on each call, with zero yaw and pitch.
      *
-     * @return the most recent location of the horse, or null if not known.
+     * @return the most recent location of the horse, or null if not known or
+     *         if its world is not loaded.
      */
     public Location getLocation() {
-        return location;
+        if (worldIndex < 0) {
+            return null;
+        }
+        World world = Bukkit.getWorld(getWorldName());
+        return (world != null) ? new Location(world, x, y, z) : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the most recent location of the horse is known.
+     *
+     * @return true if the most recent location of the horse is known.
+     */
+    public boolean hasLocation() {
+        return worldIndex >= 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of the world of the most recent location of the horse,
+     * or null if not known.
+     *
+     * @return the name of the world of the most recent location of the horse,
+     *         or null if not known.
+     */
+    public String getWorldName() {
+        return (worldIndex >= 0) ? WorldNames.getName(worldIndex) : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index in {@link WorldNames} of the world of the most recent
+     * location of the horse, or -1 if not known.
+     *
+     * @return the world index, or -1 if not known.
+     */
+    int getWorldIndex() {
+        return worldIndex;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the X coordinate of the most recent location of the horse.
+     *
+     * @return the X coordinate of the most recent location of the horse.
+     */
+    public double getX() {
+        return x;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Y coordinate of the most recent location of the horse.
+     *
+     * @return the Y coordinate of the most recent location of the horse.
+     */
+    public double getY() {
+        return y;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Z coordinate of the most recent location of the horse.
+     *
+     * @return the Z coordinate of the most recent location of the horse.
+     */
+    public double getZ() {
+        return z;
     }
 
     // ------------------------------------------------------------------------
@@ -419,7 +651,7 @@ public class SavedHorse implements Cloneable {
      */
     public void setDistanceTravelled(double distanceTravelled) {
         this.distanceTravelled = distanceTravelled;
-        setDirty();
+        setDirty(DISTANCE_TRAVELLED);
     }
 
     // ------------------------------------------------------------------------
@@ -440,7 +672,7 @@ public class SavedHorse implements Cloneable {
      */
     public void setDistanceJumped(double distanceJumped) {
         this.distanceJumped = distanceJumped;
-        setDirty();
+        setDirty(DISTANCE_JUMPED);
     }
 
     // ------------------------------------------------------------------------
@@ -461,7 +693,7 @@ public class SavedHorse implements Cloneable {
      */
     public void setNuggetsEaten(int nuggetsEaten) {
         this.nuggetsEaten = nuggetsEaten;
-        setDirty();
+        setDirty(NUGGETS_EATEN);
     }
 
     // ------------------------------------------------------------------------
@@ -481,8 +713,14 @@ public class SavedHorse implements Cloneable {
      * @param level the new level.
      */
     public void setSpeedLevel(int level) {
+        if (_ownerIndex != null) {
+            _ownerIndex.beginUpdate(this);
+        }
         this.speedLevel = level;
-        setDirty();
+        setDirty(SPEED_LEVEL);
+        if (_ownerIndex != null) {
+            _ownerIndex.endUpdate(this);
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -503,7 +741,7 @@ public class SavedHorse implements Cloneable {
      */
     public void setJumpLevel(int level) {
         this.jumpLevel = level;
-        setDirty();
+        setDirty(JUMP_LEVEL);
     }
 
     // ------------------------------------------------------------------------
@@ -524,7 +762,7 @@ public class SavedHorse implements Cloneable {
      */
     public void setHealthLevel(int level) {
         this.healthLevel = level;
-        setDirty();
+        setDirty(HEALTH_LEVEL);
     }
 
     // ------------------------------------------------------------------------
@@ -549,7 +787,7 @@ public class SavedHorse implements Cloneable {
      */
     public void setHydration(double hydration) {
         this.hydration = (hydration > 1.0 ? 1.0 : (hydration < 0.0 ? 0.0 : hydration));
-        setDirty();
+        setDirty(HYDRATION);
     }
 
     // ------------------------------------------------------------------------
@@ -592,7 +830,7 @@ public class SavedHorse implements Cloneable {
      */
     public void setLastAccessed(long lastAccessed) {
         this.lastAccessed = lastAccessed;
-        setDirty();
+        setDirty(LAST_ACCESSED);
     }
 
     // ------------------------------------------------------------------------
@@ -613,7 +851,7 @@ public class SavedHorse implements Cloneable {
      */
     public void setLastObserved(long lastObserved) {
         this.lastObserved = lastObserved;
-        setDirty();
+        setDirty(LAST_OBSERVED);
     }
 
     // ------------------------------------------------------------------------
@@ -636,6 +874,26 @@ public class SavedHorse implements Cloneable {
         return lastTamed;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Set the last tamed time stamp of this horse.
+     *
+     * This is only used when loading a horse from the database; the time stamp
+     * is otherwise maintained by {@link #setOwnerUuid(UUID)}.
+     *
+     * @param lastTamed the last tamed time stamp.
+     */
+    void setLastTamed(long lastTamed) {
+        if (_ownerIndex != null) {
+            _ownerIndex.beginUpdate(this);
+        }
+        this.lastTamed = lastTamed;
+        setDirty(LAST_TAMED);
+        if (_ownerIndex != null) {
+            _ownerIndex.endUpdate(this);
+        }
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Return true if this horse is abandoned.
@@ -676,7 +934,7 @@ public class SavedHorse implements Cloneable {
      */
     public void setOutdatedAttributes(boolean outdatedAttributes) {
         this.outdatedAttributes = outdatedAttributes;
-        setDirty();
+        setDirty(OUTDATED_ATTRIBUTES);
     }
 
     // ------------------------------------------------------------------------
@@ -715,7 +973,7 @@ public class SavedHorse implements Cloneable {
      * @return true if the specified player can access this horse.
      */
     public boolean canBeAccessedBy(OfflinePlayer player) {
-        return player.getUniqueId().equals(getOwnerUuid()) || permittedPlayers.contains(player);
+        return player.getUniqueId().equals(getOwnerUuid()) || permittedPlayers.contains(player.getUniqueId());
     }
 
     // ------------------------------------------------------------------------
@@ -724,7 +982,7 @@ public class SavedHorse implements Cloneable {
      */
     public void clearPermittedPlayers() {
         permittedPlayers.clear();
-        setDirty();
+        setDirty(PERMITTED_PLAYERS);
     }
 
     // ------------------------------------------------------------------------
@@ -734,8 +992,10 @@ public class SavedHorse implements Cloneable {
      * @param players a collection of players, which must not include the owner.
      */
     public void addPermittedPlayers(Collection<OfflinePlayer> players) {
-        permittedPlayers.addAll(players);
-        setDirty();
+        for (OfflinePlayer player : players) {
+            permittedPlayers.add(player.getUniqueId());
+        }
+        setDirty(PERMITTED_PLAYERS);
     }
 
     // ------------------------------------------------------------------------
@@ -745,30 +1005,117 @@ public class SavedHorse implements Cloneable {
      * @param players a collection of players, which must not include the owner.
      */
     public void removePermittedPlayers(Collection<OfflinePlayer> players) {
-        permittedPlayers.removeAll(players);
-        setDirty();
+        for (OfflinePlayer player : players) {
+            permittedPlayers.remove(player.getUniqueId());
+        }
+        setDirty(PERMITTED_PLAYERS);
     }
 
     // ------------------------------------------------------------------------
     /**
      * Return a list of the names of players permitted to access this horse.
      *
+     * Players are looked up by UUID when this method is called. Players
+     * unknown to the server are listed by UUID.
+     *
      * @return a list of the names of players permitted to access this horse.
      */
     public List<String> getAccessList() {
-        return permittedPlayers.stream().map(p -> p.getName()).collect(Collectors.toList());
+        return permittedPlayers.stream().map(uuid -> {
+            String name = Bukkit.getOfflinePlayer(uuid).getName();
+            return (name != null) ? name : uuid.toString();
+        }).collect(Collectors.toList());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a list of the UUIDs of players permitted to access this horse.
+     *
+     * @return a list of the UUIDs of players permitted to access this horse.
+     */
+    List<UUID> getPermittedPlayerUuids() {
+        return new ArrayList<UUID>(permittedPlayers);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Grant permission to access this horse to the player with the specified
+     * UUID.
+     *
+     * This is used when loading, to avoid looking up the player.
+     *
+     * @param playerUuid the player's UUID.
+     */
+    void addPermittedPlayerUuid(UUID playerUuid) {
+        permittedPlayers.add(playerUuid);
+        setDirty(PERMITTED_PLAYERS);
     }
 
     // ------------------------------------------------------------------------
     /**
      * Return the contents of the inventory when it was last observed.
-     * 
-     * @return the contents of the inventory when it was last observed.
+     *
+     * If the inventory was loaded in serialised form, it is deserialised on
+     * the first call.
+     *
+     * @return the contents of the inventory when it was last observed, as an
+     *         unmodifiable list of shared items that must not be modified.
      */
-    public ArrayList<ItemStack> getObservedInventory() {
+    public List<ItemStack> getObservedInventory() {
+        if (observedInventory == null) {
+            List<ItemStack> items = Collections.emptyList();
+            try {
+                items = deserialiseInventory(_serialisedInventory);
+            } catch (IOException ex) {
+                EasyRider.PLUGIN.getLogger().severe("Horse " + getUuid() + " could not load inventory: " + ex.getMessage());
+            }
+            _serialisedInventory = null;
+            observedInventory = poolInventory(items);
+        }
         return observedInventory;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Set the contents of the inventory.
+     *
+     * @param inventory the inventory contents, which may include nulls.
+     */
+    void setObservedInventory(List<ItemStack> inventory) {
+        releaseItems();
+        observedInventory = poolInventory(inventory);
+        setDirty(INVENTORY);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the inventory in the form written by
+     * {@link #serialiseInventory(List)}.
+     *
+     * If the inventory has not been deserialised, it is returned without
+     * being deserialised.
+     *
+     * @return the serialised inventory.
+     */
+    byte[] getSerialisedInventory() {
+        return (observedInventory == null) ? _serialisedInventory : serialiseInventory(observedInventory);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the inventory in the form written by
+     * {@link #serialiseInventory(List)}, to be deserialised on the first call
+     * to {@link #getObservedInventory()}.
+     *
+     * @param serialisedInventory the serialised inventory.
+     */
+    void setSerialisedInventory(byte[] serialisedInventory) {
+        releaseItems();
+        observedInventory = null;
+        _serialisedInventory = serialisedInventory;
+        setDirty(INVENTORY);
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Update this SavedHorse to reflect the current state of the AbstractHorse
@@ -807,19 +1154,29 @@ public class SavedHorse implements Cloneable {
      * unused bits later. However, we may drop that bits in favour of custom
      * lore.
      *
+     * The horse is only marked dirty if the equipment or inventory contents
+     * have actually changed.
+     *
      * @param abstractHorse the horse-like entity.
      */
     public void observeInventory(AbstractHorse abstractHorse) {
         int equip = (getEquipment() & ~HorseEquipment.ALL_REGULAR) | HorseEquipment.bits(abstractHorse);
-        setEquipment(equip);
-        observedInventory.clear();
+        if (equip != getEquipment()) {
+            setEquipment(equip);
+        }
+
         Inventory inv = abstractHorse.getInventory();
-        if (inv != null) {
-            for (ItemStack item : inv.getContents()) {
-                observedInventory.add((item == null) ? null : item.clone());
+        List<ItemStack> contents = (inv != null) ? Arrays.asList(inv.getContents())
+                                                 : Collections.<ItemStack>emptyList();
+        if (observedInventory == null) {
+            // Compare serialised forms rather than deserialising the stored
+            // inventory, which is then only deserialised if it is accessed.
+            if (!Arrays.equals(serialiseInventory(contents), _serialisedInventory)) {
+                setObservedInventory(contents);
             }
+        } else if (!contents.equals(observedInventory)) {
+            setObservedInventory(contents);
         }
-        setDirty();
     }
 
     // ------------------------------------------------------------------------
@@ -835,9 +1192,14 @@ public class SavedHorse implements Cloneable {
      * @param horse the AbstractHorse entity.
      */
     public void onRidden(int relativeTick, AbstractHorse horse) {
-        if (getLocation() != null && Util.isTrainable(horse)) {
+        if (hasLocation() && Util.isTrainable(horse)) {
             Location newLocation = horse.getLocation();
-            double dist = Util.getHorizontalDistance(location, newLocation);
+            double dist = 0.0;
+            if (newLocation.getWorld().getName().equals(getWorldName())) {
+                double dx = newLocation.getX() - x;
+                double dz = newLocation.getZ() - z;
+                dist = Math.sqrt(dx * dx + dz * dz);
+            }
             Player rider = (Player) Util.getPassenger(horse);
 
             // Horses moving through water don't get dehydrated.
@@ -905,6 +1267,10 @@ public class SavedHorse implements Cloneable {
     /**
      * Load this horse from the specified section of a YAML file.
      *
+     * This method does not call the Bukkit API, so that horses can be loaded
+     * in parallel in other threads. Permitted players are stored as UUIDs and
+     * only looked up when needed.
+     *
      * @param section the ConfigurationSection.
      */
     public void load(ConfigurationSection section) {
@@ -913,7 +1279,7 @@ public class SavedHorse implements Cloneable {
         setName(section.getString("name"));
         setDisplayName(section.getString("displayName"));
         setAppearance(section.getString("appearance"));
-        setLocation((Location) section.get("location", null));
+        boolean legacyLocation = loadLocation(section);
         setEquipment(section.getInt("equipment"));
         setDistanceTravelled(section.getDouble("distanceTravelled"));
         setDistanceJumped(section.getDouble("distanceJumped"));
@@ -931,23 +1297,244 @@ public class SavedHorse implements Cloneable {
         clearPermittedPlayers();
         for (String uuid : section.getStringList("permittedPlayers")) {
             try {
-                OfflinePlayer player = Bukkit.getOfflinePlayer(UUID.fromString(uuid));
-                if (player != null && player.getName() != null) {
-                    permittedPlayers.add(player);
-                } else {
-                    EasyRider.PLUGIN.getLogger().warning("Horse " + getUuid().toString() + " could not load permitted player " + uuid);
-                }
+                permittedPlayers.add(UUID.fromString(uuid));
             } catch (IllegalArgumentException ex) {
                 EasyRider.PLUGIN.getLogger().warning("Horse " + getUuid().toString() + " could not load permitted player " + uuid);
             }
         }
 
-        observedInventory.clear();
-        observedInventory.addAll((List<ItemStack>) section.getList("inventory", Collections.EMPTY_LIST));
+        // SnakeYAML has already deserialised the ItemStacks.
+        setObservedInventory((List<ItemStack>) section.getList("inventory", Collections.EMPTY_LIST));
 
         setClean();
+        if (legacyLocation) {
+            // Rewrite the location in the compact form on the next save.
+            setDirty(LOCATION);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the location of this horse from the specified section of a YAML
+     * file.
+     *
+     * The location is stored compactly as a string "x,y,z,world" under the
+     * key "loc". Files written by earlier versions store a serialised Bukkit
+     * Location under the key "location", which is still read. Its type tag is
+     * removed before parsing, so it is read as a plain section of world name
+     * and coordinates, without calling the Bukkit API.
+     *
+     * @param section the ConfigurationSection.
+     * @return true if the location was in the legacy form.
+     */
+    protected boolean loadLocation(ConfigurationSection section) {
+        String loc = section.getString("loc");
+        if (loc != null) {
+            String[] parts = loc.split(",", 4);
+            try {
+                setLocation(parts[3], Double.parseDouble(parts[0]), Double.parseDouble(parts[1]),
+                            Double.parseDouble(parts[2]));
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+                EasyRider.PLUGIN.getLogger().warning("Horse " + getUuid() + " has an invalid location: " + loc);
+                setLocation(null);
+            }
+            return false;
+        }
+
+        ConfigurationSection location = section.getConfigurationSection("location");
+        if (location == null) {
+            setLocation(null);
+            return false;
+        }
+        setLocation(location.getString("world"), location.getDouble("x"), location.getDouble("y"),
+                    location.getDouble("z"));
+        return true;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Write the specified fields of this horse in the binary format of the
+     * journal.
+     *
+     * Each field is written as its bit index, followed by its value.
+     *
+     * @param out the output.
+     * @param fields a bitwise OR of the field constants of the fields to write.
+     * @throws IOException if the output cannot be written.
+     */
+    void writeFields(DataOutputStream out, int fields) throws IOException {
+        for (int index = 0; index < FIELD_COUNT; ++index) {
+            int field = 1 << index;
+            if ((fields & field) == 0) {
+                continue;
+            }
+
+            out.writeByte(index);
+            switch (field) {
+            case OWNER_UUID:
+                writeUuid(out, ownerUuid);
+                break;
+            case NAME:
+                writeString(out, name);
+                break;
+            case DISPLAY_NAME:
+                writeString(out, displayName);
+                break;
+            case APPEARANCE:
+                writeString(out, appearance);
+                break;
+            case LOCATION:
+                out.writeBoolean(hasLocation());
+                if (hasLocation()) {
+                    out.writeUTF(getWorldName());
+                    out.writeDouble(x);
+                    out.writeDouble(y);
+                    out.writeDouble(z);
+                }
+                break;
+            case EQUIPMENT:
+                out.writeInt(equipment);
+                break;
+            case DISTANCE_TRAVELLED:
+                out.writeDouble(distanceTravelled);
+                break;
+            case DISTANCE_JUMPED:
+                out.writeDouble(distanceJumped);
+                break;
+            case NUGGETS_EATEN:
+                out.writeInt(nuggetsEaten);
+                break;
+            case SPEED_LEVEL:
+                out.writeInt(speedLevel);
+                break;
+            case JUMP_LEVEL:
+                out.writeInt(jumpLevel);
+                break;
+            case HEALTH_LEVEL:
+                out.writeInt(healthLevel);
+                break;
+            case HYDRATION:
+                out.writeDouble(hydration);
+                break;
+            case LAST_ACCESSED:
+                out.writeLong(lastAccessed);
+                break;
+            case LAST_OBSERVED:
+                out.writeLong(lastObserved);
+                break;
+            case LAST_TAMED:
+                out.writeLong(lastTamed);
+                break;
+            case OUTDATED_ATTRIBUTES:
+                out.writeBoolean(outdatedAttributes);
+                break;
+            case PERMITTED_PLAYERS:
+                out.writeInt(permittedPlayers.size());
+                for (UUID playerUuid : permittedPlayers) {
+                    writeUuid(out, playerUuid);
+                }
+                break;
+            case INVENTORY:
+                byte[] yaml = getSerialisedInventory();
+                out.writeInt(yaml.length);
+                out.write(yaml);
+                break;
+            }
+        }
+    } // writeFields
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read fields written by {@link #writeFields(DataOutputStream, int)} until
+     * the end of the input, and apply them to this horse.
+     *
+     * The horse is marked dirty so that the changes will be written to the
+     * database.
+     *
+     * @param in the input.
+     * @throws IOException if the input is malformed.
+     */
+    void readFields(DataInputStream in) throws IOException {
+        while (in.available() > 0) {
+            int field = 1 << in.readUnsignedByte();
+            switch (field) {
+            case OWNER_UUID:
+                ownerUuid = readUuid(in);
+                break;
+            case NAME:
+                name = readString(in);
+                break;
+            case DISPLAY_NAME:
+                displayName = readString(in);
+                break;
+            case APPEARANCE:
+                appearance = readString(in);
+                break;
+            case LOCATION:
+                worldIndex = -1;
+                if (in.readBoolean()) {
+                    worldIndex = WorldNames.indexOf(in.readUTF());
+                    x = in.readDouble();
+                    y = in.readDouble();
+                    z = in.readDouble();
+                }
+                break;
+            case EQUIPMENT:
+                equipment = in.readInt();
+                break;
+            case DISTANCE_TRAVELLED:
+                distanceTravelled = in.readDouble();
+                break;
+            case DISTANCE_JUMPED:
+                distanceJumped = in.readDouble();
+                break;
+            case NUGGETS_EATEN:
+                nuggetsEaten = in.readInt();
+                break;
+            case SPEED_LEVEL:
+                speedLevel = in.readInt();
+                break;
+            case JUMP_LEVEL:
+                jumpLevel = in.readInt();
+                break;
+            case HEALTH_LEVEL:
+                healthLevel = in.readInt();
+                break;
+            case HYDRATION:
+                hydration = in.readDouble();
+                break;
+            case LAST_ACCESSED:
+                lastAccessed = in.readLong();
+                break;
+            case LAST_OBSERVED:
+                lastObserved = in.readLong();
+                break;
+            case LAST_TAMED:
+                lastTamed = in.readLong();
+                break;
+            case OUTDATED_ATTRIBUTES:
+                outdatedAttributes = in.readBoolean();
+                break;
+            case PERMITTED_PLAYERS:
+                permittedPlayers.clear();
+                for (int count = in.readInt(); count > 0; --count) {
+                    permittedPlayers.add(readUuid(in));
+                }
+                break;
+            case INVENTORY:
+                byte[] yaml = new byte[in.readInt()];
+                in.readFully(yaml);
+                releaseItems();
+                observedInventory = null;
+                _serialisedInventory = yaml;
+                break;
+            default:
+                throw new IOException("invalid field " + field);
+            }
+        }
+        setDirty();
+    } // readFields
+
     // ------------------------------------------------------------------------
     /**
      * Save this horse to a YAML configuration.
@@ -968,7 +1555,8 @@ public class SavedHorse implements Cloneable {
         section.set("name", getName());
         section.set("displayName", getDisplayName());
         section.set("appearance", getAppearance());
-        section.set("location", getLocation());
+        section.set("location", null);
+        section.set("loc", hasLocation() ? x + "," + y + "," + z + "," + getWorldName() : null);
         section.set("equipment", getEquipment());
         section.set("distanceTravelled", getDistanceTravelled());
         section.set("distanceJumped", getDistanceJumped());
@@ -981,7 +1569,7 @@ public class SavedHorse implements Cloneable {
         section.set("lastObserved", getLastObserved());
         section.set("lastTamed", getLastTamed());
 
-        List<String> permittedUUIDs = permittedPlayers.stream().map(p -> p.getUniqueId().toString()).collect(Collectors.toList());
+        List<String> permittedUUIDs = getPermittedPlayerUuids().stream().map(UUID::toString).collect(Collectors.toList());
         section.set("permittedPlayers", permittedUUIDs);
 
         section.set("inventory", getObservedInventory());
@@ -1011,7 +1599,13 @@ public class SavedHorse implements Cloneable {
         result = prime * result + (int) (lastAccessed ^ (lastAccessed >>> 32));
         result = prime * result + (int) (lastObserved ^ (lastObserved >>> 32));
         result = prime * result + (int) (lastTamed ^ (lastTamed >>> 32));
-        result = prime * result + ((location == null) ? 0 : location.hashCode());
+        result = prime * result + worldIndex;
+        temp = Double.doubleToLongBits(x);
+        result = prime * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(y);
+        result = prime * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(z);
+        result = prime * result + (int) (temp ^ (temp >>> 32));
         result = prime * result + ((name == null) ? 0 : name.hashCode());
         result = prime * result + nuggetsEaten;
         result = prime * result + (outdatedAttributes ? 1231 : 1237);
@@ -1075,11 +1669,10 @@ public class SavedHorse implements Cloneable {
         if (lastTamed != other.lastTamed) {
             return false;
         }
-        if (location == null) {
-            if (other.location != null) {
-                return false;
-            }
-        } else if (!location.equals(other.location)) {
+        if (worldIndex != other.worldIndex ||
+            Double.doubleToLongBits(x) != Double.doubleToLongBits(other.x) ||
+            Double.doubleToLongBits(y) != Double.doubleToLongBits(other.y) ||
+            Double.doubleToLongBits(z) != Double.doubleToLongBits(other.z)) {
             return false;
         }
         if (name == null) {
@@ -1116,6 +1709,205 @@ public class SavedHorse implements Cloneable {
     }
 
     // ------------------------------------------------------------------------
+    /**
+     * Share the items of this horse's inventory through the pool, holding
+     * references to them until {@link #releaseInventory()}.
+     *
+     * This is called when the horse enters the cache. Horses that are loaded
+     * but never cached, e.g. abandoned horses and horses read by a migration,
+     * therefore never hold references in the pool.
+     */
+    void acquireInventory() {
+        if (!_pooled) {
+            _pooled = true;
+            if (observedInventory != null) {
+                observedInventory = poolInventory(observedInventory);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Release this horse's references to items in the pool, without changing
+     * the inventory or marking the horse dirty.
+     *
+     * This is called when the horse leaves the cache. The shared items are
+     * immutable, so the horse can still be read and serialised.
+     */
+    void releaseInventory() {
+        releaseItems();
+        _pooled = false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Release the references held in the pool by the items of the observed
+     * inventory, if any, before it is replaced.
+     */
+    private void releaseItems() {
+        if (observedInventory != null && _pooled) {
+            for (ItemStack item : observedInventory) {
+                ITEM_POOL.release(item);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an unmodifiable list of the shared, pooled instances of the
+     * specified items.
+     *
+     * Horses that are not in the cache, including copies made by
+     * {@link #clone()}, do not hold references in the pool, so their items are
+     * cloned instead.
+     *
+     * @param inventory the inventory contents, which may include nulls.
+     * @return the list of shared items.
+     */
+    private List<ItemStack> poolInventory(List<ItemStack> inventory) {
+        ArrayList<ItemStack> items = new ArrayList<ItemStack>(inventory.size());
+        for (ItemStack item : inventory) {
+            if (_pooled) {
+                items.add(ITEM_POOL.acquire(item));
+            } else {
+                items.add((item == null) ? null : item.clone());
+            }
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Serialise inventory contents as UTF-8 encoded YAML, for storage formats
+     * that are not YAML themselves.
+     *
+     * @param inventory the inventory contents, which may include nulls.
+     * @return the YAML.
+     */
+    static byte[] serialiseInventory(List<ItemStack> inventory) {
+        YamlConfiguration yaml = new YamlConfiguration();
+        yaml.set("inventory", inventory);
+        return yaml.saveToString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Deserialise inventory contents written by
+     * {@link #serialiseInventory(List)}.
+     *
+     * @param bytes the UTF-8 encoded YAML.
+     * @return the inventory contents.
+     * @throws IOException if the YAML is invalid.
+     */
+    @SuppressWarnings("unchecked")
+    static List<ItemStack> deserialiseInventory(byte[] bytes) throws IOException {
+        YamlConfiguration yaml = new YamlConfiguration();
+        try {
+            yaml.loadFromString(new String(bytes, StandardCharsets.UTF_8));
+        } catch (InvalidConfigurationException ex) {
+            throw new IOException("invalid inventory", ex);
+        }
+        return (List<ItemStack>) yaml.getList("inventory", Collections.EMPTY_LIST);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write a possibly null UUID.
+     *
+     * @param out the output.
+     * @param uuid the UUID, or null.
+     * @throws IOException if the output cannot be written.
+     */
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeBoolean(uuid != null);
+        if (uuid != null) {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a possibly null UUID written by
+     * {@link #writeUuid(DataOutputStream, UUID)}.
+     *
+     * @param in the input.
+     * @return the UUID, or null.
+     * @throws IOException if the input is truncated.
+     */
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write a possibly null string.
+     *
+     * @param out the output.
+     * @param string the string, or null.
+     * @throws IOException if the output cannot be written.
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) {
+            out.writeUTF(string);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a possibly null string written by
+     * {@link #writeString(DataOutputStream, String)}.
+     *
+     * @param in the input.
+     * @return the string, or null.
+     * @throws IOException if the input is truncated.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Field constants used to record which fields have changed since they were
+     * last journalled. The journal records each field by its bit index, so the
+     * existing values must not be renumbered.
+     */
+    static final int OWNER_UUID = 1 << 0;
+    static final int NAME = 1 << 1;
+    static final int DISPLAY_NAME = 1 << 2;
+    static final int APPEARANCE = 1 << 3;
+    static final int LOCATION = 1 << 4;
+    static final int EQUIPMENT = 1 << 5;
+    static final int DISTANCE_TRAVELLED = 1 << 6;
+    static final int DISTANCE_JUMPED = 1 << 7;
+    static final int NUGGETS_EATEN = 1 << 8;
+    static final int SPEED_LEVEL = 1 << 9;
+    static final int JUMP_LEVEL = 1 << 10;
+    static final int HEALTH_LEVEL = 1 << 11;
+    static final int HYDRATION = 1 << 12;
+    static final int LAST_ACCESSED = 1 << 13;
+    static final int LAST_OBSERVED = 1 << 14;
+    static final int LAST_TAMED = 1 << 15;
+    static final int OUTDATED_ATTRIBUTES = 1 << 16;
+    static final int PERMITTED_PLAYERS = 1 << 17;
+    static final int INVENTORY = 1 << 18;
+
+    /**
+     * The number of field constants.
+     */
+    static final int FIELD_COUNT = 19;
+
+    /**
+     * Bitwise OR of all field constants.
+     */
+    static final int ALL_FIELDS = (1 << FIELD_COUNT) - 1;
+
+    /**
+     * Pool of the items in the observed inventories of all horses.
+     */
+    static final ItemPool ITEM_POOL = new ItemPool();
+
     /**
      * Minimum dehydration message cooldown in milliseconds.
      */
@@ -1155,9 +1947,25 @@ public class SavedHorse implements Cloneable {
     private String appearance;
 
     /**
-     * The last known location of the horse.
+     * The index in {@link WorldNames} of the world of the last known location
+     * of the horse, or -1 if the location is not known.
+     */
+    private int worldIndex = -1;
+
+    /**
+     * The X coordinate of the last known location of the horse.
+     */
+    private double x;
+
+    /**
+     * The Y coordinate of the last known location of the horse.
+     */
+    private double y;
+
+    /**
+     * The Z coordinate of the last known location of the horse.
      */
-    private Location location;
+    private double z;
 
     /**
      * The equipment of the horse (saddle, armour) expressed as bit flags.
@@ -1232,18 +2040,36 @@ public class SavedHorse implements Cloneable {
     private boolean outdatedAttributes;
 
     /**
-     * The set of players permitted to access this horse.
+     * The UUIDs of the players permitted to access this horse.
      *
-     * Elements are compared by UUID, as OfflinePlayer.getName() is null during
-     * plugin initialisation, when {@link #load(ConfigurationSection)} is
-     * called.
+     * Players are only looked up by UUID when their names are needed, as
+     * OfflinePlayer.getName() is null during plugin initialisation, when
+     * {@link #load(ConfigurationSection)} is called.
+     */
+    private HashSet<UUID> permittedPlayers = new HashSet<UUID>();
+
+    /**
+     * Complete inventory contents when last observed, as an unmodifiable list
+     * of items shared through {@link #ITEM_POOL}, or null if not yet
+     * deserialised from {@link #_serialisedInventory}.
      */
-    private final HashSet<OfflinePlayer> permittedPlayers = new HashSet<OfflinePlayer>();
+    private List<ItemStack> observedInventory = Collections.emptyList();
 
     /**
-     * Complete inventory contents (deep copy) when last observed.
+     * The serialised inventory, kept until first accessed through
+     * {@link #getObservedInventory()}, or null if {@link #observedInventory}
+     * is set.
      */
-    private final ArrayList<ItemStack> observedInventory = new ArrayList<>();
+    // @Transient
+    private byte[] _serialisedInventory;
+
+    /**
+     * True if the items in {@link #observedInventory} hold references in
+     * {@link #ITEM_POOL}, i.e. between {@link #acquireInventory()} and
+     * {@link #releaseInventory()}; false in copies made by {@link #clone()}.
+     */
+    // @Transient
+    private boolean _pooled;
 
     /**
      * True if this bean has never been in the database, i.e. it will result in
@@ -1258,11 +2084,52 @@ public class SavedHorse implements Cloneable {
     // @Transient
     private boolean _dirty;
 
+    /**
+     * The number of times this bean has been changed.
+     */
+    // @Transient
+    private long _modCount;
+
     /**
      * If true, this horse has been marked for debug logging.
      */
     private boolean _debug;
 
+    /**
+     * The journal that records changes to this horse, or null if not
+     * journalled.
+     */
+    // @Transient
+    private HorseJournal _journal;
+
+    /**
+     * Bitwise OR of the field constants of fields changed since they were last
+     * journalled.
+     */
+    // @Transient
+    private int _journalFields;
+
+    /**
+     * The index of horses by owner that contains this horse, or null if not
+     * indexed.
+     */
+    // @Transient
+    private OwnerIndex _ownerIndex;
+
+    /**
+     * The index of horses by display name that contains this horse, or null
+     * if not indexed.
+     */
+    // @Transient
+    private NameIndex _nameIndex;
+
+    /**
+     * The index of horses by chunk that contains this horse, or null if not
+     * indexed.
+     */
+    // @Transient
+    private ChunkIndex _chunkIndex;
+
     /**
      * Limits the rate at which dehydration messages will be sent.
      */
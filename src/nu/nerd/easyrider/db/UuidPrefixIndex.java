@@ -0,0 +1,159 @@
+package nu.nerd.easyrider.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// --------------------------------------------------------------------------
+/**
+ * A set of UUIDs that can be searched by the prefix of their string form, as
+ * typed by players in commands like /horse-tp.
+ *
+ * UUIDs are ordered as unsigned 128-bit numbers, which is the same order as
+ * their string forms. A prefix corresponds to the contiguous range of UUIDs
+ * whose remaining hex digits are all 0 up to all f, so matches are found in
+ * O(log n + k) time for k matches, without formatting any UUIDs as strings.
+ *
+ * The UUIDs are held in a concurrent skip list, so that the index can be
+ * searched in any thread while horses are added and removed in the main
+ * thread.
+ */
+class UuidPrefixIndex {
+    // --------------------------------------------------------------------------
+    /**
+     * Order UUIDs as unsigned 128-bit numbers.
+     *
+     * UUID.compareTo() compares the two halves as signed longs, which does not
+     * match the order of the string forms.
+     */
+    static final Comparator<UUID> UNSIGNED_ORDER = (u1, u2) -> {
+        int comparison = Long.compareUnsigned(u1.getMostSignificantBits(), u2.getMostSignificantBits());
+        return (comparison != 0) ? comparison
+                                 : Long.compareUnsigned(u1.getLeastSignificantBits(), u2.getLeastSignificantBits());
+    };
+
+    // --------------------------------------------------------------------------
+    /**
+     * Add a UUID to the index.
+     *
+     * @param uuid the UUID.
+     */
+    public void add(UUID uuid) {
+        _uuids.add(uuid);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Remove a UUID from the index.
+     *
+     * @param uuid the UUID.
+     */
+    public void remove(UUID uuid) {
+        _uuids.remove(uuid);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Remove all UUIDs from the index.
+     */
+    public void clear() {
+        _uuids.clear();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the UUIDs whose string form begins with the specified prefix.
+     *
+     * @param uuidPrefix the case insensitive prefix, which may include the
+     *        hyphens of the string form.
+     * @return a new list of the matching UUIDs, in order; empty if the prefix
+     *         cannot begin a UUID.
+     */
+    public List<UUID> find(String uuidPrefix) {
+        UUID[] range = getRange(uuidPrefix);
+        if (range == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<UUID>(_uuids.subSet(range[0], true, range[1], true));
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return true if the string form of a UUID begins with the specified
+     * prefix.
+     *
+     * This is used to match the few UUIDs of a single owner's horses without
+     * searching the whole index.
+     *
+     * @param uuid the UUID.
+     * @param uuidPrefix the case insensitive prefix, which may include the
+     *        hyphens of the string form.
+     * @return true if the UUID matches.
+     */
+    static boolean matches(UUID uuid, String uuidPrefix) {
+        UUID[] range = getRange(uuidPrefix);
+        return range != null &&
+               UNSIGNED_ORDER.compare(uuid, range[0]) >= 0 &&
+               UNSIGNED_ORDER.compare(uuid, range[1]) <= 0;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the lowest and highest UUIDs whose string form begins with the
+     * specified prefix.
+     *
+     * @param uuidPrefix the case insensitive prefix.
+     * @return an array of the lowest and highest UUIDs, or null if the prefix
+     *         is not the beginning of the string form of any UUID.
+     */
+    protected static UUID[] getRange(String uuidPrefix) {
+        if (uuidPrefix.length() > UUID_LENGTH) {
+            return null;
+        }
+
+        long[] low = new long[2];
+        long[] high = new long[2];
+        int digits = 0;
+        for (int i = 0; i < uuidPrefix.length(); ++i) {
+            char c = uuidPrefix.charAt(i);
+            boolean hyphenPosition = (i == 8 || i == 13 || i == 18 || i == 23);
+            if (hyphenPosition) {
+                if (c != '-') {
+                    return null;
+                }
+            } else {
+                int digit = Character.digit(c, 16);
+                if (digit < 0) {
+                    return null;
+                }
+                int half = digits / 16;
+                low[half] = (low[half] << 4) | digit;
+                high[half] = (high[half] << 4) | digit;
+                ++digits;
+            }
+        }
+
+        // Pad the remaining digits of each half with 0 or f.
+        for (; digits < 32; ++digits) {
+            int half = digits / 16;
+            low[half] <<= 4;
+            high[half] = (high[half] << 4) | 0xF;
+        }
+        return new UUID[] { new UUID(low[0], low[1]), new UUID(high[0], high[1]) };
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * The length of the string form of a UUID.
+     */
+    protected static final int UUID_LENGTH = 36;
+
+    /**
+     * The UUIDs, in {@link #UNSIGNED_ORDER}.
+     */
+    protected ConcurrentSkipListSet<UUID> _uuids = new ConcurrentSkipListSet<UUID>(UNSIGNED_ORDER);
+
+} // class UuidPrefixIndex
@@ -0,0 +1,71 @@
+package nu.nerd.easyrider.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// --------------------------------------------------------------------------
+/**
+ * A table of world names, so that each horse can refer to the world of its
+ * location by a small integer index rather than by a World reference or a
+ * copy of the name.
+ *
+ * Indices are assigned in order of first use and are never reused. They are
+ * only valid for the lifetime of the process and are never stored.
+ *
+ * All methods are synchronized, since horses are loaded in parallel.
+ */
+class WorldNames {
+    // --------------------------------------------------------------------------
+    /**
+     * Return the index of the specified world name, assigning a new index if
+     * the name has not been seen before.
+     *
+     * @param name the world name.
+     * @return the index of the world name.
+     */
+    public static synchronized int indexOf(String name) {
+        Integer index = _indices.get(name);
+        if (index == null) {
+            index = _names.size();
+            _names.add(name);
+            _indices.put(name, index);
+        }
+        return index;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the index of the specified world name, without assigning a new
+     * index if the name has not been seen before.
+     *
+     * @param name the world name.
+     * @return the index of the world name, or -1 if it has not been seen.
+     */
+    public static synchronized int find(String name) {
+        Integer index = _indices.get(name);
+        return (index != null) ? index : -1;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the world name with the specified index.
+     *
+     * @param index the index returned by {@link #indexOf(String)}.
+     * @return the world name.
+     */
+    public static synchronized String getName(int index) {
+        return _names.get(index);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * World names, by index.
+     */
+    protected static final ArrayList<String> _names = new ArrayList<String>();
+
+    /**
+     * Map from world name to index.
+     */
+    protected static final HashMap<String, Integer> _indices = new HashMap<String, Integer>();
+
+} // class WorldNames
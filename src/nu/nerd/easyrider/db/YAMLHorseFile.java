@@ -0,0 +1,333 @@
+package nu.nerd.easyrider.db;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import nu.nerd.easyrider.EasyRider;
+
+// --------------------------------------------------------------------------
+/**
+ * A YAML file of horses, tracked in memory as the keys of each horse's top
+ * level section rather than as a single YamlConfiguration tree.
+ *
+ * Saved horses are rendered individually through a small YamlConfiguration,
+ * and only the text of horses changed since the file was last read or written
+ * is held in memory. The file is written by streaming the sections of
+ * unchanged horses from the existing file, in their existing order, together
+ * with the text of changed horses, to a buffered writer, so the memory needed
+ * does not grow with the number of unchanged horses. The layout is the same
+ * as that written by YamlConfiguration, so existing files remain readable.
+ */
+class YAMLHorseFile {
+    // --------------------------------------------------------------------------
+    /**
+     * Load all horses from the specified file.
+     *
+     * The file is split into the text of each horse's section, and the
+     * sections are parsed and loaded in parallel in the common fork-join pool.
+     * If the file cannot be split, it is parsed as a whole instead.
+     *
+     * Legacy serialised Locations are parsed as plain maps (see
+     * {@link #stripLocationTags(String)}), so that no Bukkit API is called
+     * while loading, which may happen outside the main thread.
+     *
+     * @param file the path to the file.
+     * @return the loaded horses.
+     */
+    public List<SavedHorse> load(Path file) {
+        _chunks.clear();
+        if (!Files.exists(file)) {
+            return new ArrayList<SavedHorse>();
+        }
+
+        try {
+            LinkedHashMap<String, String> chunks = new LinkedHashMap<String, String>();
+            splitChunks(file, chunks::put);
+            List<SavedHorse> horses = chunks.entrySet().parallelStream()
+            .map(entry -> loadChunk(entry.getKey(), entry.getValue()))
+            .collect(Collectors.toList());
+
+            // The text of unchanged horses is read back from the file when
+            // it is written.
+            for (String uuid : chunks.keySet()) {
+                _chunks.put(uuid, null);
+            }
+            return horses;
+        } catch (Exception ex) {
+            EasyRider.PLUGIN.getLogger().warning("Reparsing " + file + " as a whole: " + ex.getMessage());
+        }
+
+        // Fall back to parsing the whole file and regenerating the text, which
+        // is held until the file is next written in the expected layout.
+        _chunks.clear();
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.loadFromString(stripLocationTags(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)));
+        } catch (IOException | InvalidConfigurationException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Cannot load " + file + ": " + ex.getMessage());
+        }
+        List<SavedHorse> horses = config.getKeys(false).parallelStream().map(uuid -> {
+            SavedHorse savedHorse = new SavedHorse();
+            try {
+                savedHorse.load(config.getConfigurationSection(uuid));
+            } catch (Exception ex) {
+                // Should not happen. Mitigate the damage.
+                EasyRider.PLUGIN.getLogger().severe("Failed to load horse " + uuid + ": " + ex.getMessage());
+            }
+            return savedHorse;
+        }).collect(Collectors.toList());
+        for (String uuid : config.getKeys(false)) {
+            _chunks.put(uuid, renderChunk(config.getConfigurationSection(uuid)));
+        }
+        return horses;
+    } // load
+
+    // --------------------------------------------------------------------------
+    /**
+     * Update the text of the specified horses.
+     *
+     * @param collection the horses.
+     * @return true if any horse was updated.
+     */
+    public boolean save(Collection<SavedHorse> collection) {
+        boolean changed = false;
+        for (SavedHorse savedHorse : collection) {
+            try {
+                YamlConfiguration config = new YamlConfiguration();
+                savedHorse.save(config);
+                _chunks.put(savedHorse.getUuid().toString(), config.saveToString());
+                changed = true;
+            } catch (Exception ex) {
+                // Should not happen. Mitigate the damage.
+                EasyRider.PLUGIN.getLogger().severe("Failed to save horse " + savedHorse.getUuid() + ": " + ex.getMessage());
+            }
+        }
+        return changed;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Remove the specified horses.
+     *
+     * @param collection the horses.
+     * @return true if any horse was removed.
+     */
+    public boolean delete(Collection<SavedHorse> collection) {
+        boolean changed = false;
+        for (SavedHorse savedHorse : collection) {
+            changed |= (_chunks.remove(savedHorse.getUuid().toString()) != null);
+        }
+        return changed;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Write all horses to the specified file.
+     *
+     * The sections of unchanged horses are copied from the existing file, in
+     * order, with the text of changed horses in place of their old sections.
+     * New horses follow. The existing file is only read if it contains any
+     * unchanged horses.
+     *
+     * @param source the path to the existing file, which must be the file
+     *        most recently loaded or written.
+     * @param file the path to the file to write, which must differ from
+     *        source.
+     * @throws IOException if the file cannot be written, or if the existing
+     *         file does not contain every unchanged horse.
+     */
+    public void write(Path source, Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            if (_chunks.isEmpty()) {
+                writer.write("{}\n");
+            }
+
+            HashSet<String> written = new HashSet<String>();
+            if (_chunks.containsValue(null)) {
+                splitChunks(source, (uuid, oldChunk) -> {
+                    if (_chunks.containsKey(uuid) && written.add(uuid)) {
+                        String chunk = _chunks.get(uuid);
+                        writer.write((chunk != null) ? chunk : oldChunk);
+                    }
+                });
+            }
+
+            for (Entry<String, String> entry : _chunks.entrySet()) {
+                if (!written.contains(entry.getKey())) {
+                    if (entry.getValue() == null) {
+                        throw new IOException("horse " + entry.getKey() + " is missing from " + source);
+                    }
+                    writer.write(entry.getValue());
+                }
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Discard the text of changed horses once the file has been written, so
+     * that they are copied from the file by the next write.
+     *
+     * This must only be called after the file written by
+     * {@link #write(Path, Path)} has replaced the existing file.
+     */
+    public void written() {
+        _chunks.replaceAll((uuid, chunk) -> null);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Receives the key and text of each top level section of a file.
+     */
+    @FunctionalInterface
+    protected interface ChunkVisitor {
+        // ----------------------------------------------------------------------
+        /**
+         * Visit a section.
+         *
+         * @param uuid the key of the section.
+         * @param chunk the text of the section, including its key.
+         * @throws IOException if the section cannot be processed.
+         */
+        void visit(String uuid, String chunk) throws IOException;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Split the file into the text of each top level section.
+     *
+     * Every line that is not indented, blank or a comment begins a new
+     * section.
+     *
+     * @param file the path to the file.
+     * @param visitor receives each section, in file order.
+     * @throws IOException if the file cannot be read or does not have the
+     *         expected layout.
+     */
+    protected static void splitChunks(Path file, ChunkVisitor visitor) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String key = null;
+            StringBuilder chunk = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !Character.isWhitespace(line.charAt(0)) && line.charAt(0) != '#') {
+                    if (line.equals("{}")) {
+                        // An empty file.
+                        continue;
+                    }
+                    if (key != null) {
+                        visitor.visit(key, chunk.toString());
+                    }
+
+                    int colon = line.indexOf(':');
+                    if (colon < 0) {
+                        throw new IOException("unexpected line: " + line);
+                    }
+                    key = line.substring(0, colon).replaceAll("^['\"]|['\"]$", "");
+                    chunk.setLength(0);
+                } else if (key == null) {
+                    continue;
+                }
+                chunk.append(line).append('\n');
+            }
+            if (key != null) {
+                visitor.visit(key, chunk.toString());
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Parse and load a horse from the text of its section.
+     *
+     * @param uuid the key of the section.
+     * @param chunk the text of the section.
+     * @return the horse.
+     * @throws IllegalStateException if the text cannot be parsed; loading
+     *         then falls back to parsing the whole file.
+     */
+    protected static SavedHorse loadChunk(String uuid, String chunk) {
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.loadFromString(stripLocationTags(chunk));
+        } catch (Exception ex) {
+            throw new IllegalStateException("invalid section " + uuid, ex);
+        }
+
+        ConfigurationSection section = config.getConfigurationSection(uuid);
+        if (section == null) {
+            throw new IllegalStateException("invalid section " + uuid);
+        }
+
+        SavedHorse savedHorse = new SavedHorse();
+        try {
+            savedHorse.load(section);
+        } catch (Exception ex) {
+            // Should not happen. Mitigate the damage.
+            EasyRider.PLUGIN.getLogger().severe("Failed to load horse " + uuid + ": " + ex.getMessage());
+        }
+        return savedHorse;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Remove the type tags of legacy serialised Locations from YAML text.
+     *
+     * Bukkit deserialises a tagged map while the text is parsed, and
+     * Location.deserialize() looks up the world through the Bukkit API. With
+     * the tag removed, the location is parsed as a plain section, which
+     * {@link SavedHorse#loadLocation(ConfigurationSection)} reads.
+     *
+     * @param text the YAML text.
+     * @return the text without Location type tags.
+     */
+    protected static String stripLocationTags(String text) {
+        return LOCATION_TAG.matcher(text).replaceAll("");
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Render the text of a top level section.
+     *
+     * @param section the section.
+     * @return the text of the section, including its key.
+     */
+    protected static String renderChunk(ConfigurationSection section) {
+        YamlConfiguration config = new YamlConfiguration();
+        for (Entry<String, Object> entry : section.getValues(false).entrySet()) {
+            config.set(section.getName() + "." + entry.getKey(), entry.getValue());
+        }
+        return config.saveToString();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Matches the line tagging a map as a serialised Bukkit Location.
+     */
+    protected static final Pattern LOCATION_TAG = Pattern.compile("(?m)^[ \\t]*==: org\\.bukkit\\.Location[ \\t]*\\r?\\n");
+
+    // --------------------------------------------------------------------------
+    /**
+     * Map from horse UUID to the YAML text of the horse's section, in file
+     * order, or to null if the horse is unchanged since the file was last read
+     * or written, in which case its text is in the file.
+     */
+    protected LinkedHashMap<String, String> _chunks = new LinkedHashMap<String, String>();
+
+} // class YAMLHorseFile